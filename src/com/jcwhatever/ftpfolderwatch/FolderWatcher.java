@@ -1,181 +1,265 @@
 package com.jcwhatever.ftpfolderwatch;
 
+import com.jcwhatever.ftpfolderwatch.filter.IPathFilter;
+import com.jcwhatever.ftpfolderwatch.filter.IgnoreFile;
+import com.jcwhatever.ftpfolderwatch.filter.PathFilter;
 import com.jcwhatever.ftpfolderwatch.ftp.IFtpMirror;
+import com.jcwhatever.ftpfolderwatch.watch.IWatchBackend;
+import com.jcwhatever.ftpfolderwatch.watch.IWatchListener;
+import com.jcwhatever.ftpfolderwatch.watch.WatchServiceBackend;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileSystems;
 import java.nio.file.Path;
-import java.nio.file.StandardWatchEventKinds;
-import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Asynchronously watches a folder and all of its sub folders (Recursive)
  * for changes and sends changes to an {@link IFtpMirror}.
+ *
+ * <p>Files and folders excluded by the {@link IgnoreFile} rules in the root folder
+ * are not watched or mirrored. Changes to the rules file are applied immediately. The
+ * rules file itself is only mirrored if set to be.</p>
  */
 public class FolderWatcher {
 
     private final Path _path;
     private final IFtpMirror _mirror;
-    private final WatchService _watcher;
-    private final Thread _watchThread;
-    private final Map<WatchKey, File> _keyMap = new HashMap<>(10);
-
-    private volatile boolean _isRunning;
+    private final IWatchBackend _backend;
+    private final IgnoreFile _filter;
 
     /**
      * Constructor.
      *
+     * <p>Uses the portable {@link WatchServiceBackend}.</p>
+     *
      * @param folder  The folder to watch for changes.
      * @param mirror  The FTP mirror to send changes to.
      *
      * @throws IOException
      */
     public FolderWatcher(File folder, IFtpMirror mirror) throws IOException {
+        this(folder, mirror, new WatchServiceBackend());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param folder   The folder to watch for changes.
+     * @param mirror   The FTP mirror to send changes to.
+     * @param backend  The backend used to watch for file system changes.
+     *
+     * @throws IOException
+     */
+    public FolderWatcher(File folder, IFtpMirror mirror, IWatchBackend backend) throws IOException {
 
         _path = folder.toPath();
         _mirror = mirror;
-        _watcher = FileSystems.getDefault().newWatchService();
+        _backend = backend;
+        _filter = new IgnoreFile(folder);
 
-        watch(folder);
-
-        _isRunning = true;
-        _watchThread = new Thread(new Watcher());
-        _watchThread.start();
+        _backend.start(folder, _filter.getWatchFilter(), new Listener());
     }
 
     /**
-     * Stop watch thread and close watcher.
+     * Stop watching.
      */
     public void dispose() {
-        _isRunning = false;
-        _watchThread.interrupt();
-        try {
-            _watcher.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        _backend.dispose();
     }
 
     /**
-     * Watch a folder and recursively watch all sub folders.
+     * Get the watched folder.
+     */
+    public File getFolder() {
+        return _path.toFile();
+    }
+
+    /**
+     * Get the filter of files and folders that are not watched or mirrored.
+     */
+    public IPathFilter getFilter() {
+        return _filter;
+    }
+
+    /**
+     * Set whether the rules file is mirrored. Default is false.
+     */
+    public void setRulesFileMirrored(boolean isMirrored) {
+        _filter.setRulesFileMirrored(isMirrored);
+    }
+
+    /**
+     * Upload a file, or a folder and all of its contents, to the mirror unless
+     * it is excluded.
      *
-     * @param folder  The folder to watch.
+     * @param file  The file or folder to upload. Must be in the watched folder.
+     */
+    public void rescanPath(File file) {
+
+        boolean isFolder = file.isDirectory();
+
+        if (!file.toPath().equals(_path)) {
+
+            if (_filter.isExcluded(file, isFolder))
+                return;
+
+            upload(file);
+        }
+
+        if (isFolder)
+            rescan(file);
+    }
+
+    /**
+     * Upload the contents of a folder to the mirror.
      *
-     * @throws IOException
+     * @param folder  The folder to upload.
      */
-    private void watch(File folder) throws IOException {
+    public void rescan(File folder) {
 
-        Path path = folder.toPath();
+        File[] files = folder.listFiles();
+        if (files == null)
+            return;
 
-        WatchKey key = path.register(_watcher,
-                StandardWatchEventKinds.ENTRY_CREATE,
-                StandardWatchEventKinds.ENTRY_DELETE,
-                StandardWatchEventKinds.ENTRY_MODIFY);
-        _keyMap.put(key, folder);
+        for (File file : files) {
+
+            boolean isFolder = file.isDirectory();
+
+            if (_filter.isExcluded(file, isFolder))
+                continue;
+
+            upload(file);
+
+            if (isFolder)
+                rescan(file);
+        }
+    }
+
+    /**
+     * Reload the filter rules and upload files and folders that are no longer excluded.
+     */
+    private void reloadRules() {
+
+        PathFilter previous = _filter.reload();
+
+        if (!_backend.refresh())
+            uploadIncluded(_path.toFile(), previous);
+    }
+
+    /**
+     * Recursively upload files and folders excluded by the previous rules
+     * that are not excluded by the current rules.
+     */
+    private void uploadIncluded(File folder, PathFilter previous) {
 
         File[] files = folder.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    watch(file);
-                }
+        if (files == null)
+            return;
+
+        for (File file : files) {
+
+            boolean isFolder = file.isDirectory();
+
+            if (_filter.isExcluded(file, isFolder))
+                continue;
+
+            if (_filter.isExcluded(previous, file, isFolder)) {
+                upload(file);
+
+                if (isFolder)
+                    rescan(file);
+            }
+            else if (isFolder) {
+                uploadIncluded(file, previous);
             }
         }
     }
 
     /**
-     * File watcher thread.
+     * Upload a file or folder to the mirror.
+     */
+    private void upload(File file) {
+
+        Path remotePath = _path.relativize(file.getParentFile().toPath());
+
+        try {
+            _mirror.upload(file, remotePath.toString());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Delete a file or folder from the mirror.
+     */
+    private void delete(File file) {
+
+        Path remotePath = _path.relativize(file.getParentFile().toPath());
+
+        try {
+            _mirror.delete(file.getName(), remotePath.toString());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Receives changes from the watch backend.
      */
-    private class Watcher implements Runnable {
+    private class Listener implements IWatchListener {
 
         @Override
-        public void run() {
-
-            while (_isRunning) {
-
-                WatchKey key;
-                try {
-                    key = _watcher.take();
-                } catch (InterruptedException x) {
-                    break;
-                }
-
-                // get folder associated with watch key.
-                File keyFolder = _keyMap.get(key);
-                if (keyFolder == null) {
-                    System.err.println("Failed to find key folder.");
-                    return;
-                }
-
-                // sleep to allow file system changes to settle.
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException e) {
-                    break;
-                }
-
-                Path remotePath = _path.relativize(keyFolder.toPath());
-
-                for (WatchEvent<?> event: key.pollEvents()) {
-
-                    WatchEvent.Kind<?> kind = event.kind();
-
-                    // ignore overflow
-                    if (kind == StandardWatchEventKinds.OVERFLOW)
-                        continue;
-
-                    @SuppressWarnings("unchecked")
-                    WatchEvent<Path> pathEvent = (WatchEvent<Path>)event;
-                    Path filePath = pathEvent.context();
-                    File file = keyFolder.toPath().resolve(filePath).toFile();
-
-                    // ignore hidden files
-                    if (file.isHidden())
-                        continue;
-
-                    if (kind == StandardWatchEventKinds.ENTRY_CREATE ||
-                            kind == StandardWatchEventKinds.ENTRY_MODIFY) {
-
-                        // watch new directory for changes
-                        if (file.isDirectory() && kind == StandardWatchEventKinds.ENTRY_CREATE) {
-                            try {
-                                WatchKey newKey = file.toPath().register(_watcher,
-                                        StandardWatchEventKinds.ENTRY_CREATE,
-                                        StandardWatchEventKinds.ENTRY_DELETE,
-                                        StandardWatchEventKinds.ENTRY_MODIFY);
-
-                                _keyMap.put(newKey, file);
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }
-
-                        // upload file/folder to mirror
-                        _mirror.upload(file, remotePath.toString());
-                    }
-                    else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
-
-                        // remove directory from watch
-                        if (file.isDirectory()) {
-                            key.cancel();
-                            _keyMap.remove(key);
-                        }
-
-                        // delete file/folder from mirror
-                        _mirror.delete(filePath.toString(), remotePath.toString());
-                    }
-                }
-
-                // reset key to receive more events
-                if (_keyMap.containsKey(key))
-                    key.reset();
+        public void onCreate(File file) {
+
+            if (_filter.isRulesFile(file)) {
+                reloadRules();
+
+                if (_filter.isRulesFileMirrored())
+                    upload(file);
+                return;
             }
+
+            if (_filter.isExcluded(file))
+                return;
+
+            upload(file);
         }
-    }
 
+        @Override
+        public void onModify(File file) {
+
+            if (_filter.isRulesFile(file)) {
+                reloadRules();
+
+                if (_filter.isRulesFileMirrored())
+                    upload(file);
+                return;
+            }
+
+            // ignore folders. A modified folder means its contents
+            // changed, which are reported separately.
+            if (_filter.isExcluded(file) || file.isDirectory())
+                return;
+
+            upload(file);
+        }
+
+        @Override
+        public void onDelete(File file) {
+
+            if (_filter.isRulesFile(file)) {
+                reloadRules();
+
+                if (_filter.isRulesFileMirrored())
+                    delete(file);
+                return;
+            }
+
+            // type of deleted file is unknown, only delete if not excluded as either.
+            if (_filter.isExcluded(file, false) || _filter.isExcluded(file, true))
+                return;
+
+            delete(file);
+        }
+    }
 }
@@ -1,7 +1,32 @@
 package com.jcwhatever.ftpfolderwatch;
 
+import com.jcwhatever.ftpfolderwatch.control.ControlServer;
 import com.jcwhatever.ftpfolderwatch.ftp.FtpConnection;
 import com.jcwhatever.ftpfolderwatch.ftp.FtpMirror;
+import com.jcwhatever.ftpfolderwatch.ftp.FtpsConnection;
+import com.jcwhatever.ftpfolderwatch.ftp.IFtpConnection;
+import com.jcwhatever.ftpfolderwatch.ftp.IFtpMirror;
+import com.jcwhatever.ftpfolderwatch.ftp.SftpConnection;
+import com.jcwhatever.ftpfolderwatch.journal.Journal;
+import com.jcwhatever.ftpfolderwatch.pull.EchoFilter;
+import com.jcwhatever.ftpfolderwatch.pull.RemotePuller;
+import com.jcwhatever.ftpfolderwatch.pull.SyncIndex;
+import com.jcwhatever.ftpfolderwatch.retry.CircuitBreaker;
+import com.jcwhatever.ftpfolderwatch.retry.IHealthProbe;
+import com.jcwhatever.ftpfolderwatch.retry.RetryPolicy;
+import com.jcwhatever.ftpfolderwatch.scheduler.BackpressureGate;
+import com.jcwhatever.ftpfolderwatch.scheduler.BackpressurePolicy;
+import com.jcwhatever.ftpfolderwatch.scheduler.BandwidthLimiter;
+import com.jcwhatever.ftpfolderwatch.scheduler.RateProfile;
+import com.jcwhatever.ftpfolderwatch.scheduler.SpillQueue;
+import com.jcwhatever.ftpfolderwatch.scheduler.StabilityGate;
+import com.jcwhatever.ftpfolderwatch.scheduler.TransferScheduler;
+import com.jcwhatever.ftpfolderwatch.scheduler.TransferTask;
+import com.jcwhatever.ftpfolderwatch.verify.ChecksumAuditor;
+import com.jcwhatever.ftpfolderwatch.verify.ChecksumVerifier;
+import com.jcwhatever.ftpfolderwatch.watch.IWatchBackend;
+import com.jcwhatever.ftpfolderwatch.watch.PollingWatchBackend;
+import com.jcwhatever.ftpfolderwatch.watch.WatchBackends;
 
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -14,6 +39,8 @@ import java.io.Console;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Main class
@@ -25,10 +52,41 @@ public class Main {
     static {
         _options.addOption("addr", true, "Required. The address of the remote FTP site.");
         _options.addOption("user", true, "Required. The user name to login with.");
-        _options.addOption("port", true, "Set the port number of the remote site. Default is 21.");
+        _options.addOption("port", true, "Set the port number of the remote site. Default is 21, 990 for ftps and 22 for sftp.");
+        _options.addOption("protocol", true, "The transfer protocol: ftp, ftpes (explicit TLS), ftps (implicit TLS) or sftp. Default is ftp.");
+        _options.addOption("truststore", true, "Key store file with trusted certificates for ftpes and ftps (i.e. a self-signed server certificate).");
+        _options.addOption("trustpass", true, "The password of the trust store.");
+        _options.addOption("nohostcheck", false, "Accept an ftpes or ftps server certificate that is not issued for -addr. Only use with a -truststore containing the server certificate.");
+        _options.addOption("knownhosts", true, "Known hosts file used to verify the server key for sftp. Default is ~/.ssh/known_hosts.");
         _options.addOption("local", true, "The path of the local folder to mirror. Default is folder jar file is in.");
         _options.addOption("remote", true, "The path of the remote folder to mirror. Default is root folder.");
         _options.addOption("pass", true, "The password to login with. Omit to ask.");
+        _options.addOption("rate", true, "Max upload bytes per second for all connections (i.e. 512k, 2m). Default is unlimited.");
+        _options.addOption("connrate", true, "Max upload bytes per second per connection. Default is unlimited.");
+        _options.addOption("ops", true, "Max FTP operations per second. Default is unlimited.");
+        _options.addOption("retries", true, "Max attempts for an operation that fails with a transient error. 0 is unlimited. Default is 10.");
+        _options.addOption("journal", true, "Path of a file to record pending operations in so they survive a restart. Use ~ for relative.");
+        _options.addOption("watcher", true, "The file system watcher to use: jdk, inotify (Linux), poll (network file systems) or auto. Default is jdk.");
+        _options.addOption("pollinterval", true, "Seconds between scans when using the poll watcher. Default is 5.");
+        _options.addOption("pollthreads", true, "Number of threads used to scan when using the poll watcher. Default is number of processors.");
+        _options.addOption("pollfast", false, "Only check files in folders that changed when using the poll watcher. Detects replaced files but not files modified in place.");
+        _options.addOption("mode", true, "Direction to mirror: push (upload local changes), pull (download remote changes) or both. Default is push.");
+        _options.addOption("pullinterval", true, "Seconds between scans of the remote folder when pulling. Default is 30.");
+        _options.addOption("pullthreads", true, "Number of parallel download sessions when pulling. Default is 2.");
+        _options.addOption("pullfast", false, "Only list remote folders whose modify time changed when pulling. Requires MLST. Detects replaced files but not files overwritten in place.");
+        _options.addOption("settle", true, "Milliseconds between checks that a changed file is no longer being written. Default is 500.");
+        _options.addOption("queue", true, "Max operations held in memory waiting to be sent. Default is 100000.");
+        _options.addOption("backpressure", true, "What to do with changes while the queue is full: block (wait), spill (queue them in a file) or collapse (rescan changed folders later). Default is block.");
+        _options.addOption("spill", true, "Path of the file to queue changes in with -backpressure spill. Use ~ for relative. Default is the journal path with .spill added, or a temporary file without a journal.");
+        _options.addOption("lockcheck", false, "Also require a shared lock on a changed file before uploading it.");
+        _options.addOption("mirrorignore", false, "Also mirror the .ftpignore file. By default it is not uploaded or downloaded.");
+        _options.addOption("profile", true, "Time of day upload rates (i.e. 08:00-18:00=256k,18:00-08:00=0). Overrides -rate during each window.");
+        _options.addOption("verify", false, "Compare the server checksum of each uploaded file with the data sent. Requires HASH, XCRC, XMD5 or XSHA support.");
+        _options.addOption("audit", true, "Hours between audits comparing server checksums of all files with local files. Default is disabled.");
+        _options.addOption("daemon", false, "Run without the console. Stop using the control API or a termination signal.");
+        _options.addOption("control", true, "Loopback port of the HTTP control API. Default is disabled.");
+        _options.addOption("controltoken", true, "Path of the file the control API access token is written to. Use ~ for relative. Default is .ftpfolderwatch-<port>.token in the user home folder.");
+        _options.addOption("drain", true, "Max seconds to wait for pending operations to be sent when shutting down. Default is 30.");
     }
 
     public static void main(String[] args) throws URISyntaxException, ParseException {
@@ -43,17 +101,22 @@ public class Main {
             return;
         }
 
+        StartOptions options = new StartOptions();
+        options.isDaemon = cmd.hasOption("daemon");
+
         // password is required when there is no console to type it.
-        if (console == null && !cmd.hasOption("pass")) {
+        if ((console == null || options.isDaemon) && !cmd.hasOption("pass")) {
             showHelp();
             System.err.println("Password is required.");
             return;
         }
 
         String address = cmd.getOptionValue("addr");
-        int port = 21;
+        String protocol = cmd.hasOption("protocol") ? cmd.getOptionValue("protocol") : "ftp";
+        int port;
         String localFolder;
         String remoteFolder = cmd.hasOption("remote") ? cmd.getOptionValue("remote") : "";
+        options.remoteFolder = remoteFolder;
         String username = cmd.getOptionValue("user");
         String password;
 
@@ -69,6 +132,98 @@ public class Main {
                 return;
             }
         }
+        else {
+            port = "ftps".equals(protocol)
+                    ? 990
+                    : "sftp".equals(protocol) ? 22 : 21;
+        }
+
+        // get transfer limits
+        long rate = 0;
+        long connectionRate = 0;
+        int retries = 10;
+        String mode = cmd.hasOption("mode") ? cmd.getOptionValue("mode") : "push";
+        long pullInterval = 30 * 1000;
+        int pullThreads = 2;
+        RateProfile profile = null;
+
+        if (!"push".equals(mode) && !"pull".equals(mode) && !"both".equals(mode)) {
+            System.err.println("Invalid mode: " + mode);
+            return;
+        }
+
+        try {
+            if (cmd.hasOption("rate"))
+                rate = RateProfile.parseRate(cmd.getOptionValue("rate"));
+
+            if (cmd.hasOption("connrate"))
+                connectionRate = RateProfile.parseRate(cmd.getOptionValue("connrate"));
+
+            if (cmd.hasOption("ops"))
+                options.opsLimit = Long.parseLong(cmd.getOptionValue("ops"));
+
+            if (cmd.hasOption("retries"))
+                retries = Integer.parseInt(cmd.getOptionValue("retries"));
+
+            if (cmd.hasOption("settle"))
+                options.settle = Long.parseLong(cmd.getOptionValue("settle"));
+
+            if (cmd.hasOption("profile"))
+                profile = RateProfile.parse(cmd.getOptionValue("profile"));
+
+            if (cmd.hasOption("control"))
+                options.controlPort = Integer.parseInt(cmd.getOptionValue("control"));
+
+            if (cmd.hasOption("audit"))
+                options.auditInterval = (long)(Double.parseDouble(cmd.getOptionValue("audit")) * 60 * 60 * 1000);
+
+            if (cmd.hasOption("drain"))
+                options.drainTimeout = Long.parseLong(cmd.getOptionValue("drain")) * 1000;
+
+            if (cmd.hasOption("pullinterval"))
+                pullInterval = Long.parseLong(cmd.getOptionValue("pullinterval")) * 1000;
+
+            if (cmd.hasOption("pullthreads"))
+                pullThreads = Math.max(1, Integer.parseInt(cmd.getOptionValue("pullthreads")));
+
+            if (cmd.hasOption("queue"))
+                options.queueSize = Math.max(1, Integer.parseInt(cmd.getOptionValue("queue")));
+
+            if (cmd.hasOption("backpressure"))
+                options.backpressure = BackpressurePolicy.fromName(cmd.getOptionValue("backpressure"));
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        // get watch backend
+        IWatchBackend backend;
+
+        try {
+            backend = WatchBackends.create(cmd.hasOption("watcher") ? cmd.getOptionValue("watcher") : "jdk");
+            options.backend = backend;
+
+            if (backend instanceof PollingWatchBackend) {
+                PollingWatchBackend polling = (PollingWatchBackend)backend;
+
+                if (cmd.hasOption("pollinterval"))
+                    polling.setInterval(Long.parseLong(cmd.getOptionValue("pollinterval")) * 1000);
+
+                if (cmd.hasOption("pollthreads"))
+                    polling.setParallelism(Integer.parseInt(cmd.getOptionValue("pollthreads")));
+
+                polling.setCheckUnchangedFolders(!cmd.hasOption("pollfast"));
+            }
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        options.bandwidth = new BandwidthLimiter(rate, connectionRate);
+        options.bandwidth.setProfile(profile);
+        options.retryPolicy = new RetryPolicy(1000, 5 * 60 * 1000, retries);
 
         // get local folder
         if (cmd.hasOption("local")) {
@@ -83,6 +238,53 @@ public class Main {
             localFolder =  getJarFolder().toString();
         }
 
+        options.localFolder = localFolder;
+
+        // get journal file
+        if (cmd.hasOption("journal")) {
+
+            String journalFile = cmd.getOptionValue("journal");
+
+            if (journalFile.startsWith("~")) {
+                journalFile = getJarFolder().toString() + '/' + journalFile.substring(1);
+            }
+
+            options.journalFile = journalFile;
+        }
+
+        // get spill file
+        if (cmd.hasOption("spill")) {
+
+            String spillFile = cmd.getOptionValue("spill");
+
+            if (spillFile.startsWith("~")) {
+                spillFile = getJarFolder().toString() + '/' + spillFile.substring(1);
+            }
+
+            options.spillFile = spillFile;
+        }
+
+        // get control token file
+        if (cmd.hasOption("controltoken")) {
+
+            String tokenFile = cmd.getOptionValue("controltoken");
+
+            if (tokenFile.startsWith("~")) {
+                tokenFile = getJarFolder().toString() + '/' + tokenFile.substring(1);
+            }
+
+            options.controlTokenFile = tokenFile;
+        }
+        else {
+            options.controlTokenFile = new File(System.getProperty("user.home"),
+                    ".ftpfolderwatch-" + options.controlPort + ".token").getPath();
+        }
+
+        options.isLockChecked = cmd.hasOption("lockcheck");
+        options.isRulesFileMirrored = cmd.hasOption("mirrorignore");
+        options.isVerified = cmd.hasOption("verify");
+        options.isPushEnabled = !"pull".equals(mode);
+
         if (cmd.hasOption("pass")) {
             password = cmd.getOptionValue("pass");
         }
@@ -92,62 +294,254 @@ public class Main {
             password = new String(passwordArray);
         }
 
-        start(new FtpConnection(address, port, username, password), localFolder, remoteFolder);
+        try {
+            options.connection = createConnection(cmd, protocol, address, port, username, password);
+
+            // audits use a separate session so they don't hold up transfers.
+            if (options.auditInterval > 0)
+                options.auditConnection = createConnection(cmd, protocol, address, port, username, password);
+
+            // pulling uses a session to scan and one per download thread.
+            if (!"push".equals(mode)) {
+
+                List<IFtpConnection> downloadConnections = new ArrayList<>(pullThreads);
+                for (int i = 0; i < pullThreads; i++) {
+                    downloadConnections.add(createConnection(cmd, protocol, address, port, username, password));
+                }
+
+                options.index = new SyncIndex();
+                options.puller = new RemotePuller(new File(localFolder), remoteFolder, options.index,
+                        createConnection(cmd, protocol, address, port, username, password),
+                        downloadConnections, "both".equals(mode));
+
+                options.puller.setInterval(pullInterval);
+                options.puller.setCheckUnchangedFolders(!cmd.hasOption("pullfast"));
+            }
+        }
+        catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        start(options);
     }
 
     /**
      * Start watching local folder for changes.
      *
-     * @param connection    The {@code FtpConnection} to the mirror site.
-     * @param localFolder   The local folder to watch.
-     * @param remoteFolder  The remote folder mirror.
+     * @param options  The parsed command line options.
      */
-    private static void start(FtpConnection connection, String localFolder, String remoteFolder) {
+    private static void start(StartOptions options) {
+
+        final IFtpConnection connection = options.connection;
+        String remoteFolder = options.remoteFolder;
 
         validateConnection(connection);
 
         FtpMirror mirror = new FtpMirror(connection, remoteFolder);
+        mirror.setBandwidthLimiter(options.bandwidth.forConnection());
 
+        ChecksumVerifier verifier = new ChecksumVerifier();
+        if (options.isVerified)
+            mirror.setVerifier(verifier);
+
+        mirror.setSyncIndex(options.index);
+
+        CircuitBreaker breaker = new CircuitBreaker(new IHealthProbe() {
+            @Override
+            public boolean probe() {
+                return connection.probe();
+            }
+        }, 3, new RetryPolicy(5 * 1000, 5 * 60 * 1000, 0));
+
+        TransferScheduler scheduler = new TransferScheduler(mirror, options.opsLimit, options.bandwidth);
+        scheduler.setRetryPolicy(options.retryPolicy);
+        scheduler.setCircuitBreaker(breaker);
+
+        Journal journal = null;
+
+        if (options.journalFile != null) {
+            try {
+                journal = new Journal(new File(options.journalFile));
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(-1);
+                return;
+            }
+
+            scheduler.setJournal(journal);
+
+            // replay pending operations before watching for new changes.
+            if (!journal.getReplayed().isEmpty())
+                System.out.println("Replaying " + journal.getReplayed().size() + " pending operations.");
+
+            for (TransferTask task : journal.getReplayed()) {
+                scheduler.submit(task);
+            }
+        }
+
+        StabilityGate gate = new StabilityGate(scheduler, options.settle, 2, options.isLockChecked);
+
+        BackpressureGate bounded;
         FolderWatcher watcher;
 
         try {
-            watcher = new FolderWatcher(new File(localFolder), mirror);
+            // spilled operations survive a restart when the spill file is set or
+            // there is a journal, otherwise they are discarded with a temporary file.
+            SpillQueue spill = null;
+            if (options.backpressure == BackpressurePolicy.SPILL) {
+
+                if (options.spillFile != null) {
+                    spill = new SpillQueue(new File(options.spillFile), true);
+                }
+                else if (options.journalFile != null) {
+                    spill = new SpillQueue(new File(options.journalFile + ".spill"), true);
+                }
+                else {
+                    File temp = File.createTempFile("ftpfolderwatch", ".spill");
+                    temp.deleteOnExit();
+                    spill = new SpillQueue(temp, false);
+                }
+            }
+
+            bounded = new BackpressureGate(gate, gate, scheduler,
+                    options.queueSize, options.backpressure, spill);
+
+            // local changes made by downloads are not uploaded again. Uploads by the
+            // auditor and puller are not echoes and are sent to the bounded gate directly.
+            IFtpMirror localChanges = options.index != null
+                    ? new EchoFilter(bounded, options.index, options.isPushEnabled)
+                    : bounded;
+
+            watcher = new FolderWatcher(new File(options.localFolder), localChanges, options.backend);
+            watcher.setRulesFileMirrored(options.isRulesFileMirrored);
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(-1);
             return;
         }
 
-        Console console = System.console();
-        if (console != null) {
-            String input = null;
+        bounded.setFolder(watcher.getFolder(), watcher.getFilter());
+
+        // folders waiting to be rescanned are saved with the journal.
+        if (options.journalFile != null)
+            bounded.setRescanFile(new File(options.journalFile + ".rescan"));
+
+        bounded.start();
 
-            while (!"exit".equals(input)) {
-                System.out.println("Type 'exit' to stop.");
-                input = console.readLine();
+        final MirrorService service = new MirrorService(connection, watcher, gate, scheduler, breaker, journal);
+        service.setDrainTimeout(options.drainTimeout);
+        service.setBackpressure(bounded);
+
+        if (options.auditConnection != null) {
+            service.setAuditor(new ChecksumAuditor(watcher.getFolder(), watcher.getFilter(),
+                    options.auditConnection, remoteFolder, verifier, bounded, options.auditInterval));
+        }
+
+        if (options.puller != null) {
+            options.puller.setFilter(watcher.getFilter());
+
+            if (options.isPushEnabled)
+                options.puller.setUploadMirror(bounded);
+
+            service.setPuller(options.puller);
+            options.puller.start();
+        }
+
+        ControlServer control = null;
+
+        if (options.controlPort > 0) {
+            try {
+                control = new ControlServer(service, options.controlPort,
+                        new File(options.controlTokenFile));
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(-1);
+                return;
             }
+
+            control.start();
         }
-        else {
-            while (true) {
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    break;
-                }
+
+        // drain in-flight transfers on termination signals.
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                service.shutdown();
             }
+        }, "ShutdownHook"));
+
+        Console console = System.console();
+        if (console != null && !options.isDaemon) {
+            Thread consoleThread = new Thread(new ConsoleReader(console, service), "Console");
+            consoleThread.setDaemon(true);
+            consoleThread.start();
         }
 
-        watcher.dispose();
+        try {
+            service.awaitShutdown();
+        } catch (InterruptedException e) {
+            service.shutdown();
+        }
+
+        if (control != null)
+            control.dispose();
+
         System.exit(0);
     }
 
+    /**
+     * Create a connection for a transfer protocol.
+     *
+     * @param cmd       The parsed command line.
+     * @param protocol  The protocol name.
+     * @param address   The remote site address.
+     * @param port      The remote site port.
+     * @param username  The user name to login with.
+     * @param password  The password to login with.
+     *
+     * @throws IllegalArgumentException if the protocol is not valid.
+     * @throws IOException if the TLS trust store can't be loaded.
+     */
+    private static IFtpConnection createConnection(CommandLine cmd, String protocol, String address,
+                                                   int port, String username, String password)
+            throws IOException {
+
+        switch (protocol) {
+            case "ftp":
+                return new FtpConnection(address, port, username, password);
+
+            case "ftpes":
+            case "ftps":
+                File trustStore = cmd.hasOption("truststore")
+                        ? new File(cmd.getOptionValue("truststore"))
+                        : null;
+
+                FtpsConnection ftps = new FtpsConnection(address, port, username, password, "ftps".equals(protocol),
+                        FtpsConnection.createContext(trustStore, cmd.getOptionValue("trustpass")));
+
+                ftps.setHostVerified(!cmd.hasOption("nohostcheck"));
+                return ftps;
+
+            case "sftp":
+                File knownHosts = cmd.hasOption("knownhosts")
+                        ? new File(cmd.getOptionValue("knownhosts"))
+                        : new File(System.getProperty("user.home"), ".ssh/known_hosts");
+
+                return new SftpConnection(address, port, username, password, knownHosts);
+
+            default:
+                throw new IllegalArgumentException("Invalid protocol: " + protocol);
+        }
+    }
+
     /**
      * Validate an FTP connection by establishing a connection. Ends the
      * program if connection fails.
      *
      * @param connection  The connection to validate.
      */
-    private static void validateConnection(FtpConnection connection) {
+    private static void validateConnection(IFtpConnection connection) {
         System.out.println("Validating connection...");
 
         if (!connection.validate()) {
@@ -189,4 +583,111 @@ public class Main {
         File baseFile = getJar();
         return baseFile.getParentFile();
     }
+
+    /**
+     * Options parsed from the command line that are used to start mirroring.
+     */
+    private static class StartOptions {
+
+        // the connection to the mirror site.
+        IFtpConnection connection;
+        // the local folder to watch.
+        String localFolder;
+        // the remote folder mirror.
+        String remoteFolder = "";
+        // the upload bandwidth limiter.
+        BandwidthLimiter bandwidth;
+        // the max operations per second. 0 is unlimited.
+        long opsLimit;
+        // the policy used to retry failed operations.
+        RetryPolicy retryPolicy;
+        // the journal file path or null to not journal pending operations.
+        String journalFile;
+        // the file system watch backend.
+        IWatchBackend backend;
+        // the milliseconds between file stability checks.
+        long settle = 500;
+        // true to require a shared lock on changed files before uploading.
+        boolean isLockChecked;
+        // true to mirror the .ftpignore file.
+        boolean isRulesFileMirrored;
+        // true to verify uploads using server checksums.
+        boolean isVerified;
+        // the connection used for checksum audits or null to not audit.
+        IFtpConnection auditConnection;
+        // the milliseconds between checksum audits.
+        long auditInterval;
+        // the index shared by uploads and downloads or null if not pulling.
+        SyncIndex index;
+        // the remote change puller or null if not pulling.
+        RemotePuller puller;
+        // true to upload local changes.
+        boolean isPushEnabled = true;
+        // the max number of operations held in memory.
+        int queueSize = 100000;
+        // the policy applied to changes while the queue is full.
+        BackpressurePolicy backpressure = BackpressurePolicy.BLOCK;
+        // the file to queue changes in or null to use a temporary file.
+        String spillFile;
+        // the loopback port of the control API or 0 to disable it.
+        int controlPort;
+        // the file the control API access token is written to.
+        String controlTokenFile;
+        // true to run without the console.
+        boolean isDaemon;
+        // the max milliseconds to wait for pending operations when shutting down.
+        long drainTimeout = 30 * 1000;
+    }
+
+    /**
+     * Reads commands typed in the console.
+     */
+    private static class ConsoleReader implements Runnable {
+
+        private final Console _console;
+        private final MirrorService _service;
+
+        ConsoleReader(Console console, MirrorService service) {
+            _console = console;
+            _service = service;
+        }
+
+        @Override
+        public void run() {
+
+            while (!_service.isShutdown()) {
+
+                System.out.println("Type 'exit' to stop. Other commands: pause, resume, flush, status, rescan <path>");
+
+                String input = _console.readLine();
+                if (input == null || "exit".equals(input.trim())) {
+                    _service.shutdown();
+                    return;
+                }
+
+                input = input.trim();
+
+                try {
+                    if ("pause".equals(input)) {
+                        _service.pause();
+                    }
+                    else if ("resume".equals(input)) {
+                        _service.resume();
+                    }
+                    else if ("flush".equals(input)) {
+                        _service.flush();
+                    }
+                    else if ("status".equals(input)) {
+                        System.out.println(_service.getStatus());
+                    }
+                    else if (input.startsWith("rescan ")) {
+                        _service.rescan(input.substring(7).trim());
+                    }
+                }
+                catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,338 @@
+package com.jcwhatever.ftpfolderwatch;
+
+import com.jcwhatever.ftpfolderwatch.ftp.IFtpConnection;
+import com.jcwhatever.ftpfolderwatch.journal.Journal;
+import com.jcwhatever.ftpfolderwatch.pull.RemotePuller;
+import com.jcwhatever.ftpfolderwatch.retry.CircuitBreaker;
+import com.jcwhatever.ftpfolderwatch.scheduler.BackpressureGate;
+import com.jcwhatever.ftpfolderwatch.scheduler.StabilityGate;
+import com.jcwhatever.ftpfolderwatch.scheduler.TransferScheduler;
+import com.jcwhatever.ftpfolderwatch.scheduler.TransferTask;
+import com.jcwhatever.ftpfolderwatch.verify.ChecksumAuditor;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A running mirror of a local folder and the operations used to control it
+ * while it runs.
+ *
+ * <p>Used by the console, the control API and the shutdown hook.</p>
+ */
+public class MirrorService {
+
+    private final IFtpConnection _connection;
+    private final FolderWatcher _watcher;
+    private final StabilityGate _gate;
+    private final TransferScheduler _scheduler;
+    private final CircuitBreaker _breaker;
+    private final Journal _journal;
+    private final CountDownLatch _stopped = new CountDownLatch(1);
+    private final Object _sync = new Object();
+
+    private volatile ChecksumAuditor _auditor;
+    private volatile RemotePuller _puller;
+    private volatile BackpressureGate _backpressure;
+    private long _drainTimeout = 30 * 1000;
+    private boolean _isShutdown;
+
+    /**
+     * Constructor.
+     *
+     * @param connection  The connection to the mirror site.
+     * @param watcher     The local folder watcher.
+     * @param gate        The gate holding uploads of files that are being written.
+     * @param scheduler   The scheduler sending operations to the mirror.
+     * @param breaker     The circuit breaker of the connection. Can be null.
+     * @param journal     The journal of pending operations. Can be null.
+     */
+    public MirrorService(IFtpConnection connection, FolderWatcher watcher, StabilityGate gate,
+                         TransferScheduler scheduler, CircuitBreaker breaker, Journal journal) {
+        _connection = connection;
+        _watcher = watcher;
+        _gate = gate;
+        _scheduler = scheduler;
+        _breaker = breaker;
+        _journal = journal;
+    }
+
+    /**
+     * Set the max number of milliseconds to wait for pending operations to be
+     * sent during shutdown. Default is 30 seconds.
+     */
+    public void setDrainTimeout(long timeout) {
+        _drainTimeout = timeout;
+    }
+
+    /**
+     * Set the checksum auditor to stop on shutdown.
+     *
+     * @param auditor  The auditor or null if not auditing.
+     */
+    public void setAuditor(ChecksumAuditor auditor) {
+        _auditor = auditor;
+    }
+
+    /**
+     * Set the puller that downloads remote changes.
+     *
+     * @param puller  The puller or null if not pulling.
+     */
+    public void setPuller(RemotePuller puller) {
+        _puller = puller;
+    }
+
+    /**
+     * Set the gate limiting the number of operations held in memory.
+     *
+     * @param backpressure  The gate or null if not limited.
+     */
+    public void setBackpressure(BackpressureGate backpressure) {
+        _backpressure = backpressure;
+    }
+
+    /**
+     * Stop sending operations and downloading. Changes are still queued.
+     */
+    public void pause() {
+        _scheduler.pause();
+
+        if (_puller != null)
+            _puller.pause();
+
+        System.out.println("Paused.");
+    }
+
+    /**
+     * Resume sending operations and downloading.
+     */
+    public void resume() {
+        _scheduler.resume();
+
+        if (_puller != null)
+            _puller.resume();
+
+        System.out.println("Resumed.");
+    }
+
+    /**
+     * Determine if sending operations is paused.
+     */
+    public boolean isPaused() {
+        return _scheduler.isPaused();
+    }
+
+    /**
+     * Upload a file or folder and all of its contents.
+     *
+     * @param path  The path relative to the local folder.
+     *
+     * @throws IllegalArgumentException if the path is outside of the local folder or does not exist.
+     */
+    public void rescan(String path) {
+
+        File root = _watcher.getFolder();
+        File file = root.toPath().resolve(path).normalize().toFile();
+
+        if (!file.toPath().startsWith(root.toPath()))
+            throw new IllegalArgumentException("Path is not in the local folder: " + path);
+
+        if (!file.exists())
+            throw new IllegalArgumentException("Path not found: " + path);
+
+        System.out.println("Scanning " + file);
+        _watcher.rescanPath(file);
+    }
+
+    /**
+     * Send uploads held for files being written and operations waiting to be
+     * retried without further delay.
+     */
+    public void flush() {
+        _gate.flush();
+        _scheduler.retryNow();
+        System.out.println("Flushed.");
+    }
+
+    /**
+     * Get the current status as a JSON object.
+     */
+    public String getStatus() {
+
+        long oldest = _scheduler.getOldestCreated();
+        long lag = oldest == 0 ? 0 : System.currentTimeMillis() - oldest;
+        TransferTask inFlight = _scheduler.getInFlight();
+
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"paused\":").append(_scheduler.isPaused());
+        sb.append(",\"settling\":").append(_gate.size());
+        sb.append(",\"queued\":").append(_scheduler.size());
+        sb.append(",\"retrying\":").append(_scheduler.getRetryCount());
+
+        if (_journal != null)
+            sb.append(",\"journaled\":").append(_journal.size());
+
+        sb.append(",\"inFlight\":");
+        if (inFlight != null) {
+            appendString(sb, inFlight.toString());
+        }
+        else {
+            sb.append("null");
+        }
+
+        BackpressureGate backpressure = _backpressure;
+        if (backpressure != null) {
+            sb.append(",\"backpressure\":{\"policy\":\"")
+                    .append(backpressure.getPolicy().name().toLowerCase());
+            sb.append("\",\"capacity\":").append(backpressure.getCapacity());
+            sb.append(",\"depth\":").append(backpressure.getDepth());
+            sb.append(",\"blocked\":").append(backpressure.getBlockedCount());
+            sb.append(",\"spilled\":").append(backpressure.getSpilledCount());
+            sb.append(",\"spillQueued\":").append(backpressure.getSpillSize());
+            sb.append(",\"collapsed\":").append(backpressure.getCollapsedCount());
+            sb.append(",\"rescans\":").append(backpressure.getRescanCount());
+            sb.append('}');
+        }
+
+        String address = _connection.getAddress() + ':' + _connection.getPort();
+
+        sb.append(",\"targets\":[{\"address\":");
+        appendString(sb, address);
+        sb.append(",\"direction\":\"push\"");
+        sb.append(",\"circuit\":\"").append(_breaker != null && _breaker.isOpen() ? "open" : "closed");
+        sb.append("\",\"lag\":").append(lag);
+        sb.append('}');
+
+        RemotePuller puller = _puller;
+        if (puller != null) {
+
+            // lag of downloads is the time since remote changes were last found.
+            long lastScan = puller.getLastScan();
+
+            sb.append(",{\"address\":");
+            appendString(sb, address);
+            sb.append(",\"direction\":\"pull\"");
+            sb.append(",\"queued\":").append(puller.size());
+            sb.append(",\"lag\":").append(lastScan == 0 ? 0 : System.currentTimeMillis() - lastScan);
+            sb.append('}');
+        }
+
+        sb.append("]}");
+
+        return sb.toString();
+    }
+
+    /**
+     * Determine if the service is shut down or shutting down.
+     */
+    public boolean isShutdown() {
+        synchronized (_sync) {
+            return _isShutdown;
+        }
+    }
+
+    /**
+     * Wait until the service is shut down.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitShutdown() throws InterruptedException {
+        _stopped.await();
+    }
+
+    /**
+     * Stop watching and shut down after the operation in progress finishes.
+     *
+     * <p>Operations waiting for space in the queue are queued without waiting. Spilled
+     * operations and folders waiting to be rescanned are saved when there is a journal
+     * or spill file, otherwise they are discarded. Uploads held for files being written
+     * are released. Without a journal, queued operations
+     * are sent first unless paused, for up to the drain timeout. With a journal,
+     * queued operations are left to be replayed on the next start.</p>
+     *
+     * <p>Returns once shut down, including when called while another thread is
+     * shutting down.</p>
+     */
+    public void shutdown() {
+
+        boolean isStarted;
+
+        synchronized (_sync) {
+            isStarted = _isShutdown;
+            _isShutdown = true;
+        }
+
+        if (isStarted) {
+            try {
+                _stopped.await();
+            } catch (InterruptedException ignore) {}
+            return;
+        }
+
+        System.out.println("Shutting down...");
+
+        try {
+            // release the watcher if it is waiting for space.
+            if (_backpressure != null)
+                _backpressure.dispose();
+
+            _watcher.dispose();
+
+            if (_auditor != null)
+                _auditor.dispose();
+
+            if (_puller != null)
+                _puller.dispose(_drainTimeout);
+
+            _gate.flush();
+            _gate.dispose();
+
+            if (_journal == null && !_scheduler.isPaused() &&
+                    !_scheduler.awaitIdle(_drainTimeout)) {
+                System.err.println(_scheduler.size() + " queued operations were not sent.");
+            }
+
+            _scheduler.shutdown(_drainTimeout);
+        }
+        catch (InterruptedException e) {
+            _scheduler.dispose();
+        }
+        finally {
+            if (_journal != null)
+                _journal.close();
+
+            System.out.println("Stopped.");
+            _stopped.countDown();
+        }
+    }
+
+    /**
+     * Append a quoted and escaped JSON string.
+     */
+    private static void appendString(StringBuilder sb, String value) {
+
+        sb.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+
+            switch (ch) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                default:
+                    if (ch < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) ch));
+                    }
+                    else {
+                        sb.append(ch);
+                    }
+            }
+        }
+
+        sb.append('"');
+    }
+}
@@ -0,0 +1,312 @@
+package com.jcwhatever.ftpfolderwatch.control;
+
+import com.jcwhatever.ftpfolderwatch.MirrorService;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Local HTTP API used to control a running {@link MirrorService}.
+ *
+ * <p>Only listens on the loopback address. Requests:</p>
+ *
+ * <ul>
+ *     <li>{@code GET /status} - Backlog sizes and per target lag as JSON.</li>
+ *     <li>{@code POST /pause} - Stop sending operations.</li>
+ *     <li>{@code POST /resume} - Resume sending operations.</li>
+ *     <li>{@code POST /rescan?path=<relative path>} - Upload a file or folder and its contents.</li>
+ *     <li>{@code POST /flush} - Send held uploads and pending retries now.</li>
+ *     <li>{@code POST /shutdown} - Shut down after the operation in progress finishes.</li>
+ * </ul>
+ *
+ * <p>Every request must have an {@code Authorization: Bearer <token>} header. A new
+ * token is written to the token file each time the server is created. The file can
+ * only be read by its owner so other local users can't send commands.</p>
+ *
+ * <p>Requests with an {@code Origin} header are refused so that web pages opened
+ * in a local browser can't send commands.</p>
+ */
+public class ControlServer {
+
+    private static final int TOKEN_BYTES = 32;
+
+    private final MirrorService _service;
+    private final File _tokenFile;
+    private final byte[] _authorization;
+    private final HttpServer _server;
+    private final ExecutorService _executor;
+
+    /**
+     * Constructor.
+     *
+     * @param service    The service to control.
+     * @param port       The loopback port to listen on.
+     * @param tokenFile  The file to write the access token to. Replaced if it exists.
+     *
+     * @throws IOException if the port can't be bound or the token file can't be written.
+     */
+    public ControlServer(MirrorService service, int port, File tokenFile) throws IOException {
+        _service = service;
+        _tokenFile = tokenFile;
+
+        String token = createToken();
+        writeToken(tokenFile, token);
+        _authorization = ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+        _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ControlServer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        _server.setExecutor(_executor);
+        _server.createContext("/", new Handler());
+    }
+
+    /**
+     * Start accepting requests.
+     */
+    public void start() {
+        _server.start();
+        System.out.println("Control API listening on " + _server.getAddress() +
+                ". Token written to " + _tokenFile);
+    }
+
+    /**
+     * Stop accepting requests and delete the token file.
+     */
+    public void dispose() {
+        _server.stop(0);
+        _executor.shutdownNow();
+
+        if (!_tokenFile.delete() && _tokenFile.exists())
+            System.err.println("Failed to delete control token file: " + _tokenFile);
+    }
+
+    /**
+     * Determine if a request has the access token.
+     */
+    private boolean isAuthorized(HttpExchange exchange) {
+
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null)
+            return false;
+
+        // compared in constant time so the token can't be guessed from response times.
+        return MessageDigest.isEqual(_authorization, authorization.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Create a random access token.
+     */
+    private static String createToken() {
+
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+
+        StringBuilder token = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16));
+            token.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return token.toString();
+    }
+
+    /**
+     * Write the access token to a new file that only the owner can read.
+     */
+    private static void writeToken(File file, String token) throws IOException {
+
+        Path path = file.toPath();
+
+        // the file is created with its permissions set so it is never readable by others.
+        // Creating fails if another file is put in its place after it is deleted.
+        Files.deleteIfExists(path);
+
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rw-------")));
+        }
+        catch (UnsupportedOperationException e) {
+            // not a POSIX file system. Access is restricted as far as the file system allows.
+            Files.createFile(path);
+
+            if (!file.setReadable(false, false) || !file.setReadable(true, true) ||
+                    !file.setWritable(false, false) || !file.setWritable(true, true)) {
+                System.err.println("Failed to restrict access to control token file: " + file);
+            }
+        }
+
+        Files.write(path, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the value of a query parameter.
+     *
+     * @return  The decoded value or null if not found.
+     */
+    private static String getParameter(String query, String name) {
+
+        if (query == null)
+            return null;
+
+        for (String pair : query.split("&")) {
+
+            int index = pair.indexOf('=');
+            String key = index == -1 ? pair : pair.substring(0, index);
+
+            if (!name.equals(key))
+                continue;
+
+            try {
+                return index == -1 ? "" : URLDecoder.decode(pair.substring(index + 1), "UTF-8");
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Send a response and close the exchange.
+     */
+    private static void respond(HttpExchange exchange, int status,
+                                String contentType, String body) throws IOException {
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Determine if the response headers of an exchange were already sent.
+     */
+    private static boolean isResponseSent(HttpExchange exchange) {
+        return exchange.getResponseCode() != -1;
+    }
+
+    /**
+     * Handles all requests.
+     */
+    private class Handler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+
+            try {
+                handleRequest(exchange);
+            }
+            catch (IllegalArgumentException e) {
+                if (!isResponseSent(exchange))
+                    respond(exchange, 400, "text/plain", e.getMessage() + '\n');
+            }
+            catch (RuntimeException e) {
+                e.printStackTrace();
+
+                if (!isResponseSent(exchange))
+                    respond(exchange, 500, "text/plain", "Internal error.\n");
+            }
+            finally {
+                exchange.close();
+            }
+        }
+
+        private void handleRequest(HttpExchange exchange) throws IOException {
+
+            if (exchange.getRequestHeaders().containsKey("Origin")) {
+                respond(exchange, 403, "text/plain", "Forbidden.\n");
+                return;
+            }
+
+            if (!isAuthorized(exchange)) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                respond(exchange, 401, "text/plain", "Unauthorized.\n");
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+
+            if ("/status".equals(path)) {
+                respond(exchange, 200, "application/json", _service.getStatus() + '\n');
+                return;
+            }
+
+            // commands change state, don't allow them from a link or prefetch.
+            if (!"POST".equals(method)) {
+                respond(exchange, 405, "text/plain", "Use POST.\n");
+                return;
+            }
+
+            switch (path) {
+                case "/pause":
+                    _service.pause();
+                    break;
+
+                case "/resume":
+                    _service.resume();
+                    break;
+
+                case "/rescan":
+                    String rescanPath = getParameter(exchange.getRequestURI().getRawQuery(), "path");
+                    if (rescanPath == null)
+                        throw new IllegalArgumentException("Missing path parameter.");
+
+                    _service.rescan(rescanPath);
+                    break;
+
+                case "/flush":
+                    _service.flush();
+                    break;
+
+                case "/shutdown":
+                    // shut down from another thread so the response is sent first.
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            _service.shutdown();
+                        }
+                    }, "Shutdown");
+                    thread.start();
+
+                    respond(exchange, 202, "text/plain", "Shutting down.\n");
+                    return;
+
+                default:
+                    respond(exchange, 404, "text/plain", "Not found.\n");
+                    return;
+            }
+
+            respond(exchange, 200, "text/plain", "OK\n");
+        }
+    }
+}
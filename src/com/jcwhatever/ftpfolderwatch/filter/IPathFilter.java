@@ -0,0 +1,27 @@
+package com.jcwhatever.ftpfolderwatch.filter;
+
+import java.io.File;
+
+/**
+ * Determines which files and folders are excluded from mirroring.
+ */
+public interface IPathFilter {
+
+    /**
+     * Determine if a file or folder is excluded.
+     *
+     * <p>Only checks the file system to determine if the file is a folder when
+     * the filter has rules that only match folders.</p>
+     *
+     * @param file  The file or folder.
+     */
+    boolean isExcluded(File file);
+
+    /**
+     * Determine if a file or folder is excluded.
+     *
+     * @param file      The file or folder.
+     * @param isFolder  True if the file is a folder.
+     */
+    boolean isExcluded(File file, boolean isFolder);
+}
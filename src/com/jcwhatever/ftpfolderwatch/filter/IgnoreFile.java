@@ -0,0 +1,211 @@
+package com.jcwhatever.ftpfolderwatch.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link IPathFilter} that loads {@link PathFilter} rules from a file in the root
+ * of the watched folder.
+ *
+ * <p>Hidden (dot) files are excluded by a default rule that precedes the rules in
+ * the file, so they can be included again with a negated rule.</p>
+ *
+ * <p>The rules file itself is excluded unless it is set to be mirrored. Watch backends
+ * are given the {@link #getWatchFilter watch filter}, which does not exclude it, so that
+ * changes to it are still reported.</p>
+ *
+ * <p>Partially downloaded files are always excluded so that they are never uploaded,
+ * even when hidden files are included again.</p>
+ */
+public class IgnoreFile implements IPathFilter {
+
+    /**
+     * The name of the rules file.
+     */
+    public static final String FILE_NAME = ".ftpignore";
+
+    /**
+     * The suffix of files that are being downloaded.
+     */
+    public static final String PARTIAL_SUFFIX = ".ftppart";
+
+    private static final List<String> DEFAULT_RULES = Collections.unmodifiableList(
+            Arrays.asList(".*"));
+
+    private final File _root;
+    private final String _rootPath;
+    private final File _file;
+
+    private final IPathFilter _watchFilter = new IPathFilter() {
+        @Override
+        public boolean isExcluded(File file) {
+            return !isRulesFile(file) && IgnoreFile.this.isExcluded(file);
+        }
+
+        @Override
+        public boolean isExcluded(File file, boolean isFolder) {
+            return !isRulesFile(file) && IgnoreFile.this.isExcluded(file, isFolder);
+        }
+    };
+
+    private volatile PathFilter _filter;
+    private volatile boolean _isRulesFileMirrored;
+
+    /**
+     * Constructor.
+     *
+     * @param root  The watched root folder.
+     */
+    public IgnoreFile(File root) {
+        _root = root.getAbsoluteFile();
+        _rootPath = _root.getPath();
+        _file = new File(_root, FILE_NAME);
+
+        reload();
+    }
+
+    /**
+     * Get the rules file.
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Get a filter for watch backends that does not exclude the rules file.
+     */
+    public IPathFilter getWatchFilter() {
+        return _watchFilter;
+    }
+
+    /**
+     * Determine if the rules file is mirrored.
+     */
+    public boolean isRulesFileMirrored() {
+        return _isRulesFileMirrored;
+    }
+
+    /**
+     * Set whether the rules file is mirrored. Default is false.
+     */
+    public void setRulesFileMirrored(boolean isMirrored) {
+        _isRulesFileMirrored = isMirrored;
+    }
+
+    /**
+     * Get the current compiled rules.
+     */
+    public PathFilter getFilter() {
+        return _filter;
+    }
+
+    /**
+     * Load the rules from the rules file.
+     *
+     * @return  The previous rules.
+     */
+    public PathFilter reload() {
+
+        List<String> lines = new ArrayList<>(DEFAULT_RULES);
+
+        if (_file.isFile()) {
+            try {
+                lines.addAll(Files.readAllLines(_file.toPath(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                System.err.println("Failed to read " + _file + ": " + e.getMessage());
+            }
+        }
+
+        PathFilter previous = _filter;
+        _filter = PathFilter.compile(lines);
+
+        if (previous != null)
+            System.out.println("Reloaded " + FILE_NAME + ". " + (_filter.size() - DEFAULT_RULES.size()) + " rules.");
+
+        return previous;
+    }
+
+    /**
+     * Determine if a file name is the name of a file that is being downloaded.
+     */
+    public static boolean isPartialFile(String name) {
+        return name.endsWith(PARTIAL_SUFFIX);
+    }
+
+    /**
+     * Determine if a file is the rules file.
+     */
+    public boolean isRulesFile(File file) {
+        return _file.getPath().equals(file.getAbsolutePath());
+    }
+
+    @Override
+    public boolean isExcluded(File file) {
+        PathFilter filter = _filter;
+        return isExcluded(filter, file, filter.hasFolderRules() && file.isDirectory());
+    }
+
+    @Override
+    public boolean isExcluded(File file, boolean isFolder) {
+        return isExcluded(_filter, file, isFolder);
+    }
+
+    /**
+     * Determine if a file or folder is excluded by the specified rules.
+     *
+     * @param filter    The rules.
+     * @param file      The file or folder.
+     * @param isFolder  True if the file is a folder.
+     */
+    public boolean isExcluded(PathFilter filter, File file, boolean isFolder) {
+        String path = getRelativePath(file);
+        if (path == null || path.isEmpty())
+            return false;
+
+        if (path.equals(FILE_NAME))
+            return !_isRulesFileMirrored;
+
+        if (!isFolder && isPartialFile(path))
+            return true;
+
+        return filter.isExcluded(path, isFolder);
+    }
+
+    /**
+     * Get the path of a file relative to the root folder using / as the separator.
+     *
+     * @return  The relative path or null if the file is not in the root folder.
+     */
+    private String getRelativePath(File file) {
+
+        String path = file.getAbsolutePath();
+
+        if (!path.startsWith(_rootPath))
+            return null;
+
+        if (path.length() == _rootPath.length())
+            return "";
+
+        // a sibling folder whose name starts with the root folder name.
+        int start = _rootPath.length();
+        if (path.charAt(start) == File.separatorChar) {
+            start++;
+        }
+        else if (!_rootPath.endsWith(File.separator)) {
+            return null;
+        }
+
+        path = path.substring(start);
+
+        if (File.separatorChar != '/')
+            path = path.replace(File.separatorChar, '/');
+
+        return path;
+    }
+}
@@ -0,0 +1,331 @@
+package com.jcwhatever.ftpfolderwatch.filter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled gitignore style include/exclude rules.
+ *
+ * <p>Supported syntax: blank lines and lines starting with # are ignored, ! negates
+ * a rule, a trailing / only matches folders, a rule containing a / is matched against
+ * the path relative to the root folder, otherwise it is matched against the file name
+ * at any depth. Wildcards: *, ?, [...] and **. As with git, the last matching rule wins
+ * and a file cannot be included if one of its parent folders is excluded.</p>
+ *
+ * <p>Rules are compiled by kind so that common rules are matched without regular
+ * expressions: literal names (i.e. {@code node_modules}) are looked up in a hash map,
+ * {@code *suffix} and {@code prefix*} rules are compared directly, and only the
+ * remaining rules are compiled to regular expressions.</p>
+ */
+public class PathFilter {
+
+    /**
+     * A filter with no rules.
+     */
+    public static final PathFilter EMPTY = compile(new ArrayList<String>(0));
+
+    private final Map<String, Integer> _names = new HashMap<>(10);
+    private final Map<String, Integer> _folderNames = new HashMap<>(10);
+    private final List<Rule> _suffixRules = new ArrayList<>(10);
+    private final List<Rule> _prefixRules = new ArrayList<>(10);
+    private final List<Rule> _patternRules = new ArrayList<>(10);
+    private final List<Boolean> _negated = new ArrayList<>(10);
+    private boolean _hasFolderRules;
+
+    /**
+     * Compile rules.
+     *
+     * @param lines  The rule lines.
+     */
+    public static PathFilter compile(List<String> lines) {
+
+        PathFilter filter = new PathFilter();
+
+        for (String line : lines) {
+            filter.add(line);
+        }
+
+        return filter;
+    }
+
+    private PathFilter() {}
+
+    /**
+     * Get the number of rules.
+     */
+    public int size() {
+        return _negated.size();
+    }
+
+    /**
+     * Determine if the filter has rules that only match folders.
+     */
+    public boolean hasFolderRules() {
+        return _hasFolderRules;
+    }
+
+    /**
+     * Determine if a path is excluded.
+     *
+     * @param path      The path relative to the root folder using / as the separator.
+     * @param isFolder  True if the path is a folder.
+     */
+    public boolean isExcluded(String path, boolean isFolder) {
+
+        if (_negated.isEmpty())
+            return false;
+
+        // a path is excluded if any of its parent folders are excluded.
+        int slash = path.indexOf('/');
+        int nameStart = 0;
+
+        while (slash != -1) {
+            if (isMatchExcluded(path.substring(0, slash), path.substring(nameStart, slash), true))
+                return true;
+
+            nameStart = slash + 1;
+            slash = path.indexOf('/', nameStart);
+        }
+
+        return isMatchExcluded(path, path.substring(nameStart), isFolder);
+    }
+
+    /**
+     * Determine if the last rule that matches a path excludes it.
+     */
+    private boolean isMatchExcluded(String path, String name, boolean isFolder) {
+
+        int match = -1;
+
+        Integer index = _names.get(name);
+        if (index != null)
+            match = index;
+
+        if (isFolder) {
+            index = _folderNames.get(name);
+            if (index != null)
+                match = Math.max(match, index);
+        }
+
+        match = Math.max(match, match(_suffixRules, path, name, isFolder, match));
+        match = Math.max(match, match(_prefixRules, path, name, isFolder, match));
+        match = Math.max(match, match(_patternRules, path, name, isFolder, match));
+
+        return match != -1 && !_negated.get(match);
+    }
+
+    /**
+     * Get the index of the last rule in a list that matches, only checking
+     * rules with an index higher than the current match.
+     */
+    private static int match(List<Rule> rules, String path, String name, boolean isFolder, int current) {
+
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            Rule rule = rules.get(i);
+
+            if (rule.index <= current)
+                break;
+
+            if (rule.isFolderOnly && !isFolder)
+                continue;
+
+            if (rule.matches(path, name))
+                return rule.index;
+        }
+        return -1;
+    }
+
+    /**
+     * Parse and add a rule line.
+     */
+    private void add(String line) {
+
+        // trailing spaces are ignored unless escaped
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ' ' &&
+                (end < 2 || line.charAt(end - 2) != '\\')) {
+            end--;
+        }
+        line = line.substring(0, end);
+
+        if (line.isEmpty() || line.startsWith("#"))
+            return;
+
+        boolean isNegated = false;
+
+        if (line.startsWith("!")) {
+            isNegated = true;
+            line = line.substring(1);
+        }
+        else if (line.startsWith("\\#") || line.startsWith("\\!")) {
+            line = line.substring(1);
+        }
+
+        boolean isFolderOnly = false;
+
+        if (line.endsWith("/")) {
+            isFolderOnly = true;
+            line = line.substring(0, line.length() - 1);
+        }
+
+        boolean isAnchored = line.indexOf('/') != -1;
+        if (line.startsWith("/"))
+            line = line.substring(1);
+
+        // "**/name" matches name at any depth, same as an unanchored rule.
+        if (line.startsWith("**/") && line.indexOf('/', 3) == -1) {
+            line = line.substring(3);
+            isAnchored = false;
+        }
+
+        if (line.isEmpty())
+            return;
+
+        int index = _negated.size();
+        _negated.add(isNegated);
+        _hasFolderRules |= isFolderOnly;
+
+        if (!isAnchored && !hasWildcard(line, 0, line.length())) {
+            (isFolderOnly ? _folderNames : _names).put(unescape(line), index);
+        }
+        else if (!isAnchored && line.startsWith("*") && !hasWildcard(line, 1, line.length())) {
+            _suffixRules.add(new Rule(index, isFolderOnly, unescape(line.substring(1)), Rule.SUFFIX));
+        }
+        else if (!isAnchored && line.endsWith("*") && !hasWildcard(line, 0, line.length() - 1)) {
+            _prefixRules.add(new Rule(index, isFolderOnly,
+                    unescape(line.substring(0, line.length() - 1)), Rule.PREFIX));
+        }
+        else {
+            _patternRules.add(new Rule(index, isFolderOnly, line,
+                    isAnchored ? Rule.PATH_PATTERN : Rule.NAME_PATTERN));
+        }
+    }
+
+    private static boolean hasWildcard(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char ch = text.charAt(i);
+            if (ch == '*' || ch == '?' || ch == '[' || ch == '\\')
+                return true;
+        }
+        return false;
+    }
+
+    private static String unescape(String text) {
+        return text.replace("\\", "");
+    }
+
+    /**
+     * Convert a glob to a regular expression.
+     */
+    static String toRegex(String glob) {
+
+        StringBuilder regex = new StringBuilder(glob.length() * 2);
+
+        for (int i = 0; i < glob.length(); i++) {
+            char ch = glob.charAt(i);
+
+            switch (ch) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+
+                        boolean isSegmentStart = i == 0 || glob.charAt(i - 1) == '/';
+                        boolean isSlashNext = i + 2 < glob.length() && glob.charAt(i + 2) == '/';
+
+                        if (isSegmentStart && isSlashNext) {
+                            // "**/" matches zero or more folders
+                            regex.append("(?:.*/)?");
+                            i += 2;
+                        }
+                        else {
+                            regex.append(".*");
+                            i++;
+                        }
+                    }
+                    else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+
+                case '?':
+                    regex.append("[^/]");
+                    break;
+
+                case '[':
+                    int close = glob.indexOf(']', i + 2);
+                    if (close == -1) {
+                        regex.append("\\[");
+                        break;
+                    }
+
+                    String set = glob.substring(i + 1, close);
+                    if (set.startsWith("!"))
+                        set = '^' + set.substring(1);
+
+                    regex.append('[').append(set.replace("\\", "\\\\")).append(']');
+                    i = close;
+                    break;
+
+                case '\\':
+                    if (i + 1 < glob.length()) {
+                        i++;
+                        regex.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+                    }
+                    break;
+
+                default:
+                    if ("().+^$|{}".indexOf(ch) != -1)
+                        regex.append('\\');
+
+                    regex.append(ch);
+                    break;
+            }
+        }
+
+        return regex.toString();
+    }
+
+    /**
+     * A compiled rule that is not a literal name.
+     */
+    private static class Rule {
+
+        static final int SUFFIX = 0;
+        static final int PREFIX = 1;
+        static final int NAME_PATTERN = 2;
+        static final int PATH_PATTERN = 3;
+
+        final int index;
+        final boolean isFolderOnly;
+        final int kind;
+        final String text;
+        final Pattern pattern;
+
+        Rule(int index, boolean isFolderOnly, String text, int kind) {
+            this.index = index;
+            this.isFolderOnly = isFolderOnly;
+            this.kind = kind;
+            this.text = text;
+            this.pattern = kind == NAME_PATTERN || kind == PATH_PATTERN
+                    ? Pattern.compile(toRegex(text))
+                    : null;
+        }
+
+        boolean matches(String path, String name) {
+            switch (kind) {
+                case SUFFIX:
+                    return name.endsWith(text);
+                case PREFIX:
+                    return name.startsWith(text);
+                case NAME_PATTERN:
+                    return pattern.matcher(name).matches();
+                case PATH_PATTERN:
+                    return pattern.matcher(path).matches();
+                default:
+                    return false;
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.jcwhatever.ftpfolderwatch.ftp;
 
+import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPClientConfig;
 import org.apache.commons.net.ftp.FTPReply;
@@ -8,6 +9,9 @@ import java.io.IOException;
 
 /**
  * Insecure FTP connection.
+ *
+ * <p>The logged in session is kept and reused until it has not been used
+ * for the session timeout.</p>
  */
 public class FtpConnection implements IFtpConnection {
 
@@ -18,6 +22,7 @@ public class FtpConnection implements IFtpConnection {
 
     private FTPClient _client;
     private long _expires;
+    private long _sessionTimeout = 30 * 1000;
 
     /**
      * Constructor.
@@ -35,19 +40,36 @@ public class FtpConnection implements IFtpConnection {
     }
 
     /**
-     * Validate address, username and password by connecting to the remote site.
-     *
-     * @return  True if connection successful, otherwise false.
+     * Set the number of milliseconds an idle session is kept for reuse. Default is 30 seconds.
      */
+    public void setSessionTimeout(long timeout) {
+        _sessionTimeout = timeout;
+    }
+
+    @Override
     public boolean validate() {
-        FTPClient ftp = connect();
-        if (ftp == null)
+        try {
+            connect();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
             return false;
+        }
 
-        if (ftp.isConnected()) {
-            disconnect();
-            return true;
+        disconnect();
+        return true;
+    }
+
+    @Override
+    public boolean probe() {
+        try {
+            FTPClient ftp = connect();
+            if (ftp.sendNoOp())
+                return true;
+        } catch (IOException e) {
+            System.err.println("Health probe failed: " + e.getMessage());
         }
+
+        close();
         return false;
     }
 
@@ -67,47 +89,65 @@ public class FtpConnection implements IFtpConnection {
     }
 
     @Override
-    public boolean connect(IFtpHandler handler) {
+    public void connect(IFtpHandler handler) throws IOException {
 
         FTPClient ftp = connect();
-        if (ftp == null)
-            return false;
 
         try {
             handler.handle(ftp);
         } catch (IOException e) {
-            e.printStackTrace();
-            return false;
+            // the client state is unknown after a failure, start over on next connect.
+            close();
+            throw e;
         }
 
+        _expires = System.currentTimeMillis() + _sessionTimeout;
+
         disconnect();
+    }
 
-        return true;
+    /**
+     * Create a new unconnected client.
+     *
+     * @throws IOException
+     */
+    protected FTPClient createClient() throws IOException {
+        FTPClient ftp = new FTPClient();
+        FTPClientConfig config = new FTPClientConfig();
+        ftp.configure(config);
+        return ftp;
+    }
+
+    /**
+     * Invoked after a new client has logged in.
+     *
+     * @param ftp  The client.
+     *
+     * @throws IOException
+     */
+    protected void onLogin(FTPClient ftp) throws IOException {
+        // do nothing
     }
 
     /**
      * Connect to the FTP site and return an {@code FTPClient} instance.
      *
-     * @return  The client instance or null if failed.
+     * @return  The client instance.
+     *
+     * @throws IOException if the connection or login fails.
      */
-    private FTPClient connect() {
+    private FTPClient connect() throws IOException {
 
         // return current client if available and not expired.
         if (_client != null && _client.isConnected() && System.currentTimeMillis() < _expires) {
             return _client;
         }
 
-        if (_client != null) {
-            try {
-                _client.disconnect();
-            } catch (IOException ignore) {}
-        }
+        close();
 
-        _expires = System.currentTimeMillis() + (30 * 1000);
+        _expires = System.currentTimeMillis() + _sessionTimeout;
 
-        FTPClient ftp = new FTPClient();
-        FTPClientConfig config = new FTPClientConfig();
-        ftp.configure(config);
+        FTPClient ftp = createClient();
 
         try {
 
@@ -120,15 +160,21 @@ public class FtpConnection implements IFtpConnection {
             int reply = ftp.getReplyCode();
 
             if(!FTPReply.isPositiveCompletion(reply)) {
-                ftp.disconnect();
-                System.err.println("FTP server refused connection.");
-                return _client = null;
+                throw new FtpReplyException("FTP server refused connection.", reply, ftp.getReplyString());
+            }
+
+            onLogin(ftp);
+
+            // transfer files unchanged. ASCII mode converts line endings, so the
+            // server copy would differ from the local file and its checksum.
+            if (!ftp.setFileType(FTP.BINARY_FILE_TYPE)) {
+                throw new FtpReplyException("FTP server refused binary transfer mode.",
+                        ftp.getReplyCode(), ftp.getReplyString());
             }
 
             _client = ftp;
 
         } catch(IOException e) {
-            e.printStackTrace();
 
             if(ftp.isConnected()) {
                 try {
@@ -138,7 +184,7 @@ public class FtpConnection implements IFtpConnection {
                 }
             }
 
-            return _client = null;
+            throw e;
         }
 
         return _client;
@@ -168,4 +214,18 @@ public class FtpConnection implements IFtpConnection {
 
         _client = null;
     }
+
+    /**
+     * Close the current client connection regardless of expiration.
+     */
+    private void close() {
+        if (_client == null)
+            return;
+
+        try {
+            _client.disconnect();
+        } catch (IOException ignore) {}
+
+        _client = null;
+    }
 }
@@ -1,13 +1,22 @@
 package com.jcwhatever.ftpfolderwatch.ftp;
 
+import com.jcwhatever.ftpfolderwatch.pull.SyncIndex;
+import com.jcwhatever.ftpfolderwatch.scheduler.BandwidthLimiter;
+import com.jcwhatever.ftpfolderwatch.verify.ChecksumAlgorithm;
+import com.jcwhatever.ftpfolderwatch.verify.ChecksumVerifier;
+
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Set;
@@ -21,6 +30,9 @@ public class FtpMirror implements IFtpMirror {
     private final String _rootFolder;
     private String _workingDirectory = null;
     private final Set<String> _createdFolders = new HashSet<>(10);
+    private BandwidthLimiter _bandwidth;
+    private ChecksumVerifier _verifier;
+    private SyncIndex _index;
 
     /**
      * Constructor.
@@ -33,8 +45,40 @@ public class FtpMirror implements IFtpMirror {
         _rootFolder = remoteFolder;
     }
 
+    /**
+     * Set the bandwidth limiter used to limit the upload rate.
+     *
+     * @param bandwidth  The limiter or null for no limit.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidth) {
+        _bandwidth = bandwidth;
+    }
+
+    /**
+     * Set the verifier used to compare the checksum of uploaded files on the
+     * server with the checksum of the data sent.
+     *
+     * <p>The local checksum is computed from the data as it is read for the upload,
+     * so the file is not read twice.</p>
+     *
+     * @param verifier  The verifier or null to not verify uploads.
+     */
+    public void setVerifier(ChecksumVerifier verifier) {
+        _verifier = verifier;
+    }
+
+    /**
+     * Set the index used to record uploaded files so they are not downloaded
+     * again when mirroring in both directions.
+     *
+     * @param index  The index or null if not downloading.
+     */
+    public void setSyncIndex(SyncIndex index) {
+        _index = index;
+    }
+
     @Override
-    public void upload(final File file, final String remotePath) {
+    public void upload(final File file, final String remotePath) throws IOException {
 
         final String path = Paths.get(_rootFolder, remotePath).toString();
         final String filename = file.getName();
@@ -47,23 +91,47 @@ public class FtpMirror implements IFtpMirror {
 
                 if (!_createdFolders.contains(path)) {
                     createRemotePath(ftp, path);
+                    requireWorkingDirectory(ftp, path);
+
+                    // not recorded until it exists so a failure is retried.
                     _createdFolders.add(path);
                 }
-
-                if (!changeWorkingDirectory(ftp, path))
-                    return;
+                else {
+                    requireWorkingDirectory(ftp, path);
+                }
 
                 if (file.isFile()) {
 
-                    FileInputStream stream = null;
+                    InputStream stream = null;
+                    ChecksumAlgorithm algorithm = _verifier != null
+                            ? _verifier.getAlgorithm(ftp)
+                            : null;
+                    MessageDigest digest = null;
 
                     try {
                         stream = new FileInputStream(file);
+
+                        if (algorithm != null) {
+                            digest = algorithm.newDigest();
+                            stream = new DigestInputStream(stream, digest);
+                        }
+
+                        if (_bandwidth != null)
+                            stream = _bandwidth.wrap(stream);
+
                         if (ftp.storeFile(filename, stream)) {
                             System.out.println("Uploaded: " + filename);
                         } else {
-                            System.out.println("Failed to upload: " + filename);
+                            throw new FtpReplyException("Failed to upload: " + filename,
+                                    ftp.getReplyCode(), ftp.getReplyString());
                         }
+
+                        if (digest != null && _verifier.verify(ftp, filename, algorithm, digest.digest()))
+                            System.out.println("Verified: " + filename);
+
+                        if (_index != null)
+                            _index.recordUpload(ftp, SyncIndex.toFolder(remotePath), file);
+
                     } finally {
                         if (stream != null) {
                             stream.close();
@@ -73,9 +141,17 @@ public class FtpMirror implements IFtpMirror {
 
                     if (ftp.makeDirectory(filename)) {
                         System.out.println("Made directory: " + filename);
-                    } else {
-                        System.out.println("Failed to make directory: " + filename);
                     }
+                    else {
+                        int replyCode = ftp.getReplyCode();
+                        String reply = ftp.getReplyString();
+
+                        if (!hasFolder(ftp, filename))
+                            throw new FtpReplyException("Failed to make directory: " + filename, replyCode, reply);
+                    }
+
+                    if (_index != null)
+                        _index.putFolder(SyncIndex.toFolder(remotePath), filename);
 
                 }
             }
@@ -83,7 +159,7 @@ public class FtpMirror implements IFtpMirror {
     }
 
     @Override
-    public void delete(final String name, final String remotePath) {
+    public void delete(final String name, final String remotePath) throws IOException {
 
         final Path remoteAbsPath = Paths.get(_rootFolder, remotePath);
 
@@ -94,13 +170,15 @@ public class FtpMirror implements IFtpMirror {
             @Override
             public void handle(FTPClient ftp) throws IOException {
 
-                if (!changeWorkingDirectory(ftp, remoteAbsPath.toString()))
-                    return;
+                requireWorkingDirectory(ftp, remoteAbsPath.toString());
+
+                if (_index != null)
+                    _index.remove(SyncIndex.toFolder(remotePath), name);
 
                 FTPFile[] files = ftp.listFiles();
-                if (files == null) {
-                    System.err.println("Delete failed. No files found.");
-                    return;
+                if (files == null || !FTPReply.isPositiveCompletion(ftp.getReplyCode())) {
+                    throw new FtpReplyException("Failed to list " + remoteAbsPath,
+                            ftp.getReplyCode(), ftp.getReplyString());
                 }
 
                 for (FTPFile file : files) {
@@ -117,7 +195,7 @@ public class FtpMirror implements IFtpMirror {
                     }
                 }
 
-                System.err.println("Failed to delete file or folder: " + name + ", File not found.");
+                System.out.println("Already deleted: " + name);
             }
         });
     }
@@ -148,23 +226,97 @@ public class FtpMirror implements IFtpMirror {
         }
     }
 
+    /**
+     * Change the current working directory and throw an exception if it fails.
+     *
+     * @param ftp         The ftp client.
+     * @param remotePath  The remote path to set as the working directory.
+     *
+     * @throws FtpReplyException if the working directory could not be changed.
+     * @throws IOException
+     */
+    private void requireWorkingDirectory(FTPClient ftp, String remotePath) throws IOException {
+
+        if (!changeWorkingDirectory(ftp, remotePath)) {
+            throw new FtpReplyException("Failed to change working directory to: " + remotePath,
+                    ftp.getReplyCode(), ftp.getReplyString());
+        }
+    }
+
     /**
      * Delete a remote file from the current working directory.
      *
      * @param ftp       The ftp client.
      * @param filename  The name of the file to delete.
      *
+     * @throws FtpReplyException if the file could not be deleted.
      * @throws IOException
      */
     private void deleteFile(FTPClient ftp, String filename) throws IOException {
         if (ftp.deleteFile(filename)) {
             System.out.println("Deleted file: " + filename);
         }
+        else if (ftp.getReplyCode() == FTPReply.FILE_UNAVAILABLE) {
+            System.out.println("Already deleted: " + filename);
+        }
         else {
-            System.out.println("Failed to delete file: " + filename);
+            throw new FtpReplyException("Failed to delete file: " + filename,
+                    ftp.getReplyCode(), ftp.getReplyString());
         }
     }
 
+    /**
+     * Remove an empty remote folder from the current working directory.
+     *
+     * @param ftp         The ftp client.
+     * @param foldername  The name of the folder to remove.
+     *
+     * @throws FtpReplyException if the folder could not be removed.
+     * @throws IOException
+     */
+    private void removeDirectory(FTPClient ftp, String foldername) throws IOException {
+
+        if (ftp.removeDirectory(foldername)) {
+            System.out.println("Deleted folder: " + foldername);
+            return;
+        }
+
+        int replyCode = ftp.getReplyCode();
+        String reply = ftp.getReplyString();
+
+        // 550 is also returned for a folder that is not empty.
+        if (replyCode == FTPReply.FILE_UNAVAILABLE && !hasFolder(ftp, foldername)) {
+            System.out.println("Already deleted: " + foldername);
+            return;
+        }
+
+        throw new FtpReplyException("Failed to delete folder: " + foldername, replyCode, reply);
+    }
+
+    /**
+     * Determine if the current working directory has a folder.
+     *
+     * @param ftp         The ftp client.
+     * @param foldername  The name of the folder.
+     *
+     * @throws FtpReplyException if the folder could not be listed.
+     * @throws IOException
+     */
+    private boolean hasFolder(FTPClient ftp, String foldername) throws IOException {
+
+        FTPFile[] folders = ftp.listDirectories();
+        if (folders == null || !FTPReply.isPositiveCompletion(ftp.getReplyCode())) {
+            throw new FtpReplyException("Failed to list " + _workingDirectory,
+                    ftp.getReplyCode(), ftp.getReplyString());
+        }
+
+        for (FTPFile folder : folders) {
+            if (folder.getName().equals(foldername))
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Delete a remote folder from the current working directory.
      *
@@ -176,26 +328,20 @@ public class FtpMirror implements IFtpMirror {
     private void deleteFolder(FTPClient ftp, String foldername) throws IOException {
 
         String currentDirectory = _workingDirectory;
-        changeWorkingDirectory(ftp, currentDirectory + '/' + foldername);
+        requireWorkingDirectory(ftp, currentDirectory + '/' + foldername);
 
         FTPFile[] files = ftp.listFiles();
-        if (files != null) {
-            for (FTPFile file : files) {
-
-                if (file.getName().equals(".") || file.getName().equals(".."))
-                    continue;
-
-                deleteContents(ftp, file);
-            }
+        if (files == null || !FTPReply.isPositiveCompletion(ftp.getReplyCode())) {
+            throw new FtpReplyException("Failed to list " + _workingDirectory,
+                    ftp.getReplyCode(), ftp.getReplyString());
         }
 
-        changeWorkingDirectory(ftp, currentDirectory);
-
-        if (ftp.removeDirectory(foldername)) {
-            System.out.println("Deleted folder: " + foldername);
-        } else {
-            System.out.println("Failed to delete folder: " + foldername);
+        for (FTPFile file : files) {
+            deleteContents(ftp, file);
         }
+
+        requireWorkingDirectory(ftp, currentDirectory);
+        removeDirectory(ftp, foldername);
     }
 
     /**
@@ -208,22 +354,11 @@ public class FtpMirror implements IFtpMirror {
      */
     private void deleteContents(FTPClient ftp, FTPFile file) throws IOException {
 
-        if (file.isDirectory()) {
-
-            String currentDirectory = _workingDirectory;
-
-            if (changeWorkingDirectory(ftp, _workingDirectory + '/' + file.getName())) {
-
-                FTPFile[] files = ftp.listFiles();
-                if (files != null) {
-                    for (FTPFile f : files) {
-                        deleteContents(ftp, f);
-                    }
-                }
-                ftp.removeDirectory(file.getName());
+        if (file.getName().equals(".") || file.getName().equals(".."))
+            return;
 
-                changeWorkingDirectory(ftp, currentDirectory);
-            }
+        if (file.isDirectory()) {
+            deleteFolder(ftp, file.getName());
         }
         else {
             deleteFile(ftp, file.getName());
@@ -282,6 +417,7 @@ public class FtpMirror implements IFtpMirror {
         FTPFile[] folders = ftp.listDirectories();
         String currentFolder = currentFolderPath.toString();
 
+        // a folder that could not be made fails when it becomes the working directory.
         if (folders == null) {
             ftp.makeDirectory(currentFolder);
         }
@@ -300,7 +436,7 @@ public class FtpMirror implements IFtpMirror {
 
         if (!paths.isEmpty()) {
 
-            changeWorkingDirectory(ftp, current.toString());
+            requireWorkingDirectory(ftp, current.toString());
 
             createRemotePathRecurse(ftp, paths.removeFirst(), paths);
         }
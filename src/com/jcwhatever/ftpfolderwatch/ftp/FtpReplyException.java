@@ -0,0 +1,35 @@
+package com.jcwhatever.ftpfolderwatch.ftp;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an FTP command fails with a negative reply from the server.
+ */
+public class FtpReplyException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int _replyCode;
+
+    /**
+     * Constructor.
+     *
+     * @param message    The failure message.
+     * @param replyCode  The FTP reply code.
+     * @param reply      The FTP reply string.
+     */
+    public FtpReplyException(String message, int replyCode, String reply) {
+        super(reply != null && !reply.isEmpty()
+                ? message + " Reply: " + reply.trim()
+                : message);
+
+        _replyCode = replyCode;
+    }
+
+    /**
+     * Get the FTP reply code.
+     */
+    public int getReplyCode() {
+        return _replyCode;
+    }
+}
@@ -0,0 +1,263 @@
+package com.jcwhatever.ftpfolderwatch.ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.net.ftp.FTPSClient;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Locale;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Secure FTP connection using TLS. (FTPS)
+ *
+ * <p>Supports explicit (AUTH TLS on the normal FTP port) and implicit (TLS from the
+ * start, usually port 990) modes. The control and data channels are encrypted.</p>
+ *
+ * <p>TLS handshakes are expensive, so sessions are reused in two ways: every client
+ * created by the connection shares one {@code SSLContext} so reconnecting resumes the
+ * previous TLS session, and the TLS session of the control channel is reused for data
+ * channels. Many servers (i.e. vsftpd with {@code require_ssl_reuse}) require the
+ * latter, and it avoids a full handshake for every file transferred.</p>
+ *
+ * <p>Reusing the control channel session requires access to the JSSE session cache. On
+ * Java 9 or later, run with {@code --add-opens java.base/sun.security.ssl=ALL-UNNAMED
+ * --add-opens java.base/sun.security.util=ALL-UNNAMED}. When the cache is accessible,
+ * connections are limited to TLS 1.2 because TLS 1.3 sessions are resumed with tickets
+ * that can't be shared with the data channel. Otherwise an error is shown once and data
+ * channels use a new session.</p>
+ *
+ * <p>The server certificate must be issued for the server address unless host
+ * verification is disabled.</p>
+ */
+public class FtpsConnection extends FtpConnection {
+
+    /**
+     * The TLS protocol used when the control session is reused for data channels.
+     */
+    public static final String SESSION_REUSE_PROTOCOL = "TLSv1.2";
+
+    private static final String ADD_OPENS = "--add-opens java.base/sun.security.ssl=ALL-UNNAMED " +
+            "--add-opens java.base/sun.security.util=ALL-UNNAMED";
+
+    private static Boolean _isSessionReuseSupported;
+
+    private final boolean _isImplicit;
+    private final SSLContext _sslContext;
+    private final boolean _isSessionReused;
+
+    private boolean _isHostVerified = true;
+
+    /**
+     * Create a TLS context.
+     *
+     * @param trustStore  A key store file containing the trusted certificates (i.e. a server's
+     *                    self-signed certificate) or null to use the Java runtime defaults.
+     * @param password    The key store password. Can be null.
+     *
+     * @throws IOException if the key store can't be read or the context can't be created.
+     */
+    public static SSLContext createContext(File trustStore, String password) throws IOException {
+
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+
+            if (trustStore == null) {
+                context.init(null, null, null);
+                return context;
+            }
+
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+
+            try (InputStream stream = new FileInputStream(trustStore)) {
+                keyStore.load(stream, password != null ? password.toCharArray() : null);
+            }
+
+            TrustManagerFactory factory =
+                    TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            factory.init(keyStore);
+
+            context.init(null, factory.getTrustManagers(), null);
+            return context;
+        }
+        catch (GeneralSecurityException e) {
+            throw new IOException("Failed to create TLS context: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Determine if the control channel TLS session can be reused for data channels
+     * in this Java runtime. Shows an error the first time it can't.
+     *
+     * @param context  The TLS context.
+     */
+    public static synchronized boolean isSessionReuseSupported(SSLContext context) {
+
+        if (_isSessionReuseSupported != null)
+            return _isSessionReuseSupported;
+
+        try {
+            getHostPortCache(context.getClientSessionContext());
+            _isSessionReuseSupported = true;
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            _isSessionReuseSupported = false;
+            System.err.println("TLS session reuse for data connections is not available, servers that " +
+                    "require it will refuse transfers. On Java 9 or later run with " + ADD_OPENS + ". " + e);
+        }
+
+        return _isSessionReuseSupported;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param address     The address of the remote FTP site.
+     * @param port        The port number of the remote FTP site.
+     * @param userName    The user name to connect with.
+     * @param password    The password to connect with.
+     * @param isImplicit  True for implicit TLS, false for explicit TLS.
+     * @param sslContext  The TLS context. Determines the trusted certificates.
+     */
+    public FtpsConnection(String address, int port, String userName, String password,
+                          boolean isImplicit, SSLContext sslContext) {
+        super(address, port, userName, password);
+
+        _isImplicit = isImplicit;
+        _sslContext = sslContext;
+        _isSessionReused = isSessionReuseSupported(sslContext);
+    }
+
+    /**
+     * Determine if the server certificate must be issued for the server address.
+     */
+    public boolean isHostVerified() {
+        return _isHostVerified;
+    }
+
+    /**
+     * Set whether the server certificate must be issued for the server address.
+     * Default is true.
+     *
+     * <p>Only disable when the trusted certificates are limited to the server's
+     * own certificate, otherwise any trusted certificate is accepted for any server.</p>
+     */
+    public void setHostVerified(boolean isVerified) {
+        _isHostVerified = isVerified;
+    }
+
+    @Override
+    protected FTPClient createClient() throws IOException {
+
+        FTPSClient client = new SessionReuseClient(_isImplicit, _sslContext, _isSessionReused);
+        client.setEndpointCheckingEnabled(_isHostVerified);
+
+        if (_isSessionReused)
+            client.setEnabledProtocols(new String[] { SESSION_REUSE_PROTOCOL });
+
+        return client;
+    }
+
+    @Override
+    protected void onLogin(FTPClient ftp) throws IOException {
+
+        FTPSClient ftps = (FTPSClient)ftp;
+
+        // encrypt data channel
+        ftps.execPBSZ(0);
+        ftps.execPROT("P");
+
+        if (!FTPReply.isPositiveCompletion(ftp.getReplyCode())) {
+            throw new FtpReplyException("FTP server refused data channel protection.",
+                    ftp.getReplyCode(), ftp.getReplyString());
+        }
+    }
+
+    /**
+     * {@code FTPSClient} that reuses the control channel TLS session for data channels.
+     *
+     * <p>The JSSE client only resumes a session when connecting to the same host and port
+     * the session was created for. Data channels use a different port, so the control
+     * session is added to the session cache under the data channel host and port before
+     * the data channel handshake.</p>
+     */
+    private static class SessionReuseClient extends FTPSClient {
+
+        final boolean isSessionReused;
+
+        SessionReuseClient(boolean isImplicit, SSLContext context, boolean isSessionReused) {
+            super(isImplicit, context);
+            this.isSessionReused = isSessionReused;
+        }
+
+        @Override
+        protected void _prepareDataSocket_(Socket socket) throws IOException {
+
+            if (!isSessionReused || !(socket instanceof SSLSocket) ||
+                    !(_socket_ instanceof SSLSocket)) {
+                return;
+            }
+
+            SSLSession session = ((SSLSocket)_socket_).getSession();
+            if (!session.isValid())
+                return;
+
+            SSLSessionContext context = session.getSessionContext();
+            if (context == null)
+                return;
+
+            try {
+                Object cache = getHostPortCache(context);
+
+                Method put = cache.getClass().getDeclaredMethod("put", Object.class, Object.class);
+                put.setAccessible(true);
+
+                int port = socket.getPort();
+
+                put.invoke(cache, getCacheKey(socket.getInetAddress().getHostName(), port), session);
+                put.invoke(cache, getCacheKey(socket.getInetAddress().getHostAddress(), port), session);
+            }
+            catch (ReflectiveOperationException | RuntimeException e) {
+                // checked when the connection was created, fail the transfer
+                // rather than silently sending it without reuse.
+                throw new IOException("Failed to reuse TLS session for data connection. " +
+                        "On Java 9 or later run with " + ADD_OPENS + '.', e);
+            }
+        }
+
+        private static String getCacheKey(String host, int port) {
+            return (host + ':' + port).toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    /**
+     * Get the session cache of a JSSE session context that is keyed by host and port.
+     *
+     * @throws ReflectiveOperationException if the context does not have the expected cache.
+     * @throws RuntimeException if the cache is not accessible (i.e. Java 9 or later without
+     * {@code --add-opens}).
+     */
+    private static Object getHostPortCache(SSLSessionContext context) throws ReflectiveOperationException {
+
+        Field cacheField = context.getClass().getDeclaredField("sessionHostPortCache");
+        cacheField.setAccessible(true);
+        Object cache = cacheField.get(context);
+
+        // the put method of the cache implementation must also be accessible.
+        cache.getClass().getDeclaredMethod("put", Object.class, Object.class).setAccessible(true);
+
+        return cache;
+    }
+}
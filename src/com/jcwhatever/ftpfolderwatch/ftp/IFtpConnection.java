@@ -1,7 +1,11 @@
 package com.jcwhatever.ftpfolderwatch.ftp;
 
+import java.io.IOException;
+
 /**
  * A type responsible for connecting to an FTP site.
+ *
+ * <p>Implementations are not required to be thread safe.</p>
  */
 public interface IFtpConnection {
 
@@ -20,12 +24,26 @@ public interface IFtpConnection {
      */
     String getUsername();
 
+    /**
+     * Validate address, username and password by connecting to the remote site.
+     *
+     * @return  True if connection successful, otherwise false.
+     */
+    boolean validate();
+
+    /**
+     * Check that the remote site is reachable by sending a NOOP command.
+     *
+     * @return  True if the site responded, otherwise false.
+     */
+    boolean probe();
+
     /**
      * Connect to the FTP site.
      *
      * @param handler  The handler that will perform FTP operations.
      *
-     * @return  True if successful.
+     * @throws IOException if the connection fails or the handler throws an exception.
      */
-    boolean connect(IFtpHandler handler);
+    void connect(IFtpHandler handler) throws IOException;
 }
@@ -1,6 +1,7 @@
 package com.jcwhatever.ftpfolderwatch.ftp;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * Represents an FTP site that mirrors a local folder.
@@ -18,8 +19,10 @@ public interface IFtpMirror {
      *
      * @param file        The file/folder to upload or create.
      * @param remotePath  The remote path to upload the file to or create folder at.
+     *
+     * @throws IOException if the operation fails.
      */
-    public void upload(File file, String remotePath);
+    public void upload(File file, String remotePath) throws IOException;
 
     /**
      * Delete a file or folder from the mirror.
@@ -29,6 +32,8 @@ public interface IFtpMirror {
      *
      * @param name        The name of the file or folder to delete.
      * @param remotePath  The remote path of the file or folder to delete.
+     *
+     * @throws IOException if the operation fails.
      */
-    public void delete(String name, String remotePath);
+    public void delete(String name, String remotePath) throws IOException;
 }
@@ -0,0 +1,313 @@
+package com.jcwhatever.ftpfolderwatch.ftp;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.Vector;
+
+/**
+ * Adapts an SFTP channel to the {@code FTPClient} methods used by {@link IFtpHandler}'s
+ * so that handlers work unchanged over SFTP.
+ *
+ * <p>Failed operations set an FTP equivalent reply code: 550 for missing files and
+ * permission errors, 451 for other failures. Lost connections throw an {@code IOException}.
+ * FTP only commands such as FEAT are not supported and fail with reply code 502.</p>
+ */
+public class SftpClientAdapter extends FTPClient {
+
+    private final ChannelSftp _channel;
+
+    private int _replyCode = 220;
+    private String _replyString = "";
+
+    /**
+     * Constructor.
+     *
+     * @param channel  The connected SFTP channel.
+     */
+    public SftpClientAdapter(ChannelSftp channel) {
+        _channel = channel;
+    }
+
+    /**
+     * Close the SFTP channel.
+     */
+    public void close() {
+        _channel.disconnect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return _channel.isConnected();
+    }
+
+    @Override
+    public void disconnect() throws IOException {
+        close();
+    }
+
+    @Override
+    public boolean logout() throws IOException {
+        close();
+        return true;
+    }
+
+    @Override
+    public int getReplyCode() {
+        return _replyCode;
+    }
+
+    @Override
+    public String getReplyString() {
+        return _replyString;
+    }
+
+    @Override
+    public String[] getReplyStrings() {
+        return new String[] { _replyString };
+    }
+
+    @Override
+    public boolean setFileType(int fileType) throws IOException {
+        // SFTP transfers are always binary
+        return success();
+    }
+
+    @Override
+    public boolean sendNoOp() throws IOException {
+        try {
+            _channel.pwd();
+            return success();
+        } catch (SftpException e) {
+            return failure(e);
+        }
+    }
+
+    @Override
+    public int sendCommand(String command) throws IOException {
+        return notSupported();
+    }
+
+    @Override
+    public int sendCommand(String command, String args) throws IOException {
+        return notSupported();
+    }
+
+    @Override
+    public boolean features() throws IOException {
+        notSupported();
+        return false;
+    }
+
+    @Override
+    public boolean hasFeature(String feature) throws IOException {
+        return false;
+    }
+
+    @Override
+    public String printWorkingDirectory() throws IOException {
+        try {
+            String directory = _channel.pwd();
+            success();
+            return directory;
+        } catch (SftpException e) {
+            failure(e);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean changeWorkingDirectory(String pathname) throws IOException {
+        try {
+            _channel.cd(pathname.isEmpty() ? "/" : pathname);
+            return success();
+        } catch (SftpException e) {
+            return failure(e);
+        }
+    }
+
+    @Override
+    public boolean makeDirectory(String pathname) throws IOException {
+        try {
+            _channel.mkdir(pathname);
+            return success();
+        } catch (SftpException e) {
+            return failure(e);
+        }
+    }
+
+    @Override
+    public boolean removeDirectory(String pathname) throws IOException {
+        try {
+            _channel.rmdir(pathname);
+            return success();
+        } catch (SftpException e) {
+            return failure(e);
+        }
+    }
+
+    @Override
+    public boolean deleteFile(String pathname) throws IOException {
+        try {
+            _channel.rm(pathname);
+            return success();
+        } catch (SftpException e) {
+            return failure(e);
+        }
+    }
+
+    @Override
+    public boolean storeFile(String remote, InputStream local) throws IOException {
+        try {
+            _channel.put(local, remote);
+            return success();
+        } catch (SftpException e) {
+            return failure(e);
+        }
+    }
+
+    @Override
+    public boolean retrieveFile(String remote, OutputStream local) throws IOException {
+        try {
+            _channel.get(remote, local);
+            return success();
+        } catch (SftpException e) {
+            return failure(e);
+        }
+    }
+
+    @Override
+    public boolean setModificationTime(String pathname, String timeval) throws IOException {
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        try {
+            long time = format.parse(timeval).getTime();
+            _channel.setMtime(pathname, (int)(time / 1000));
+            return success();
+        } catch (ParseException e) {
+            _replyCode = 501;
+            _replyString = "Invalid time value: " + timeval;
+            return false;
+        } catch (SftpException e) {
+            return failure(e);
+        }
+    }
+
+    @Override
+    public FTPFile[] listFiles() throws IOException {
+        return list(".", false);
+    }
+
+    @Override
+    public FTPFile[] listFiles(String pathname) throws IOException {
+        return list(pathname == null ? "." : pathname, false);
+    }
+
+    @Override
+    public FTPFile[] listDirectories() throws IOException {
+        return list(".", true);
+    }
+
+    @Override
+    public FTPFile[] mlistDir() throws IOException {
+        return list(".", false);
+    }
+
+    @Override
+    public FTPFile[] mlistDir(String pathname) throws IOException {
+        return list(pathname == null ? "." : pathname, false);
+    }
+
+    private FTPFile[] list(String path, boolean isFoldersOnly) throws IOException {
+
+        Vector<?> entries;
+
+        try {
+            entries = _channel.ls(path);
+        } catch (SftpException e) {
+            failure(e);
+            return null;
+        }
+
+        List<FTPFile> files = new ArrayList<>(entries.size());
+
+        for (Object item : entries) {
+            LsEntry entry = (LsEntry)item;
+            String name = entry.getFilename();
+
+            if (name.equals(".") || name.equals(".."))
+                continue;
+
+            SftpATTRS attributes = entry.getAttrs();
+
+            if (isFoldersOnly && !attributes.isDir())
+                continue;
+
+            FTPFile file = new FTPFile();
+            file.setName(name);
+            file.setSize(attributes.getSize());
+            file.setType(attributes.isDir()
+                    ? FTPFile.DIRECTORY_TYPE
+                    : attributes.isLink() ? FTPFile.SYMBOLIC_LINK_TYPE : FTPFile.FILE_TYPE);
+
+            Calendar timestamp = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            timestamp.setTimeInMillis(attributes.getMTime() * 1000L);
+            file.setTimestamp(timestamp);
+
+            files.add(file);
+        }
+
+        success();
+        return files.toArray(new FTPFile[files.size()]);
+    }
+
+    private boolean success() {
+        _replyCode = 250;
+        _replyString = "OK";
+        return true;
+    }
+
+    private int notSupported() {
+        _replyCode = 502;
+        _replyString = "Command not supported over SFTP.";
+        return _replyCode;
+    }
+
+    private boolean failure(SftpException e) throws IOException {
+
+        switch (e.id) {
+            case ChannelSftp.SSH_FX_NO_SUCH_FILE:
+            case ChannelSftp.SSH_FX_PERMISSION_DENIED:
+                _replyCode = 550;
+                break;
+
+            case ChannelSftp.SSH_FX_NO_CONNECTION:
+            case ChannelSftp.SSH_FX_CONNECTION_LOST:
+                throw new IOException("SFTP connection lost: " + e.getMessage(), e);
+
+            default:
+                _replyCode = 451;
+                break;
+        }
+
+        _replyString = e.getMessage();
+        return false;
+    }
+}
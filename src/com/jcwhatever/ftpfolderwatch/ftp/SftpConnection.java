@@ -0,0 +1,176 @@
+package com.jcwhatever.ftpfolderwatch.ftp;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * SSH file transfer connection. (SFTP)
+ *
+ * <p>Handlers receive an {@code FTPClient} adapter that performs the operations
+ * over SFTP (see {@link SftpClientAdapter}). The SSH session and SFTP channel are
+ * kept and reused until they have not been used for the session timeout.</p>
+ *
+ * <p>Server host keys are verified against a known hosts file.</p>
+ */
+public class SftpConnection implements IFtpConnection {
+
+    private final String _address;
+    private final int _port;
+    private final String _username;
+    private final String _password;
+    private final File _knownHosts;
+
+    private Session _session;
+    private SftpClientAdapter _client;
+    private long _expires;
+    private long _sessionTimeout = 30 * 1000;
+
+    /**
+     * Constructor.
+     *
+     * @param address     The address of the remote SFTP site.
+     * @param port        The port number of the remote SFTP site.
+     * @param userName    The user name to connect with.
+     * @param password    The password to connect with.
+     * @param knownHosts  The known hosts file used to verify the server host key.
+     */
+    public SftpConnection(String address, int port, String userName, String password,
+                          File knownHosts) {
+        _address = address;
+        _port = port;
+        _username = userName;
+        _password = password;
+        _knownHosts = knownHosts;
+    }
+
+    /**
+     * Set the number of milliseconds an idle session is kept for reuse. Default is 30 seconds.
+     */
+    public void setSessionTimeout(long timeout) {
+        _sessionTimeout = timeout;
+    }
+
+    @Override
+    public String getAddress() {
+        return _address;
+    }
+
+    @Override
+    public int getPort() {
+        return _port;
+    }
+
+    @Override
+    public String getUsername() {
+        return _username;
+    }
+
+    @Override
+    public boolean validate() {
+        try {
+            connect();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean probe() {
+        try {
+            if (connect().sendNoOp())
+                return true;
+        } catch (IOException e) {
+            System.err.println("Health probe failed: " + e.getMessage());
+        }
+
+        close();
+        return false;
+    }
+
+    @Override
+    public void connect(IFtpHandler handler) throws IOException {
+
+        SftpClientAdapter client = connect();
+
+        try {
+            handler.handle(client);
+        } catch (IOException e) {
+            // the channel state is unknown after a failure, start over on next connect.
+            close();
+            throw e;
+        }
+
+        _expires = System.currentTimeMillis() + _sessionTimeout;
+    }
+
+    /**
+     * Connect to the SFTP site and return a client adapter.
+     *
+     * @throws IOException if the connection or login fails.
+     */
+    private SftpClientAdapter connect() throws IOException {
+
+        // return current client if available and not expired.
+        if (_client != null && _client.isConnected() && System.currentTimeMillis() < _expires) {
+            return _client;
+        }
+
+        close();
+
+        _expires = System.currentTimeMillis() + _sessionTimeout;
+
+        Session session = null;
+
+        try {
+            JSch jsch = new JSch();
+
+            if (_knownHosts != null && _knownHosts.isFile())
+                jsch.setKnownHosts(_knownHosts.getPath());
+
+            session = jsch.getSession(_username, _address, _port);
+            session.setPassword(_password);
+            session.setConfig("StrictHostKeyChecking", "yes");
+            session.setConfig("PreferredAuthentications", "password,keyboard-interactive");
+            session.connect(30 * 1000);
+
+            ChannelSftp channel = (ChannelSftp)session.openChannel("sftp");
+            channel.connect();
+
+            System.out.println("Connected to " + _address + " (SFTP).");
+
+            _session = session;
+            _client = new SftpClientAdapter(channel);
+            return _client;
+
+        } catch (JSchException e) {
+
+            if (session != null)
+                session.disconnect();
+
+            throw new IOException("SFTP connection failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Close the current session.
+     */
+    private void close() {
+
+        if (_client != null) {
+            _client.close();
+            _client = null;
+        }
+
+        if (_session != null) {
+            _session.disconnect();
+            _session = null;
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package com.jcwhatever.ftpfolderwatch.journal;
+
+import com.jcwhatever.ftpfolderwatch.scheduler.TransferTask;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Durable append-only journal of pending mirror operations.
+ *
+ * <p>Each queued operation is recorded before it is queued and marked done after it
+ * completes. On startup the operations that were not marked done are replayed.</p>
+ *
+ * <p>Appends use group commit: records are added to an in memory buffer and a single
+ * writer thread writes and syncs the buffer to disk. {@link #append} returns without
+ * waiting for the sync, and {@link #awaitDurable} waits until a record is synced before
+ * its operation is sent. All records added while a sync is in progress are written by
+ * the next sync, so the number of syncs does not grow with the event rate.</p>
+ *
+ * <p>When the journal file grows large and most of its records are for completed
+ * operations, it is compacted into a checkpoint that contains only the pending operations.</p>
+ *
+ * <p>Record format: {@code [int length][int crc32][byte kind][long id][payload]}. A torn
+ * record at the end of the file (i.e. from a crash during a write) is discarded.</p>
+ */
+public class Journal {
+
+    private static final byte RECORD_ADD = 1;
+    private static final byte RECORD_DONE = 2;
+
+    private final File _file;
+    private final Object _sync = new Object();
+    private final Map<Long, TransferTask> _pending = new LinkedHashMap<>(10);
+    private final List<TransferTask> _replayed;
+    private final Thread _writerThread;
+
+    private RandomAccessFile _raf;
+    private FileChannel _channel;
+    private RecordBuffer _buffer = new RecordBuffer();
+    private RecordBuffer _writing = new RecordBuffer();
+    private long _nextId;
+    private long _durableId;
+    private long _records;
+    private long _compactSize = 16 * 1024 * 1024;
+    private IOException _error;
+
+    private volatile boolean _isRunning;
+
+    /**
+     * Constructor.
+     *
+     * <p>Opens the journal file, creating it if it does not exist, and reads the pending
+     * operations recorded in it.</p>
+     *
+     * @param file  The journal file.
+     *
+     * @throws IOException
+     */
+    public Journal(File file) throws IOException {
+        _file = file;
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("Failed to create journal folder: " + parent);
+
+        open();
+        _replayed = Collections.unmodifiableList(new ArrayList<>(read()));
+
+        // start clean with a checkpoint of the replayed operations.
+        checkpoint();
+        _durableId = _nextId;
+
+        _isRunning = true;
+        _writerThread = new Thread(new Writer(), "Journal");
+        _writerThread.setDaemon(true);
+        _writerThread.start();
+    }
+
+    /**
+     * Get the pending operations read from the journal file when it was opened,
+     * in the order they were recorded.
+     */
+    public List<TransferTask> getReplayed() {
+        return _replayed;
+    }
+
+    /**
+     * Get the number of pending operations.
+     */
+    public int size() {
+        synchronized (_sync) {
+            return _pending.size();
+        }
+    }
+
+    /**
+     * Set the journal file size in bytes after which the journal is compacted
+     * if most of its records are for completed operations.
+     */
+    public void setCompactSize(long size) {
+        synchronized (_sync) {
+            _compactSize = size;
+        }
+    }
+
+    /**
+     * Record a pending operation. The record is synced to disk by the writer thread.
+     *
+     * @param task  The operation.
+     *
+     * @return  The journal id of the operation.
+     *
+     * @throws IOException if the journal has failed or is closed.
+     */
+    public long append(TransferTask task) throws IOException {
+
+        synchronized (_sync) {
+            checkState();
+
+            long id = ++_nextId;
+
+            writeRecord(_buffer, RECORD_ADD, id, task);
+            _pending.put(id, task);
+
+            _sync.notifyAll();
+
+            return id;
+        }
+    }
+
+    /**
+     * Wait until the record of a pending operation is synced to disk.
+     *
+     * <p>Returns without waiting if the journal has failed or is closed, since the
+     * record can no longer be synced. The failure is reported by {@link #append}.</p>
+     *
+     * @param journalId  The journal id of the operation.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitDurable(long journalId) throws InterruptedException {
+
+        synchronized (_sync) {
+            while (_durableId < journalId && _error == null && _isRunning) {
+                _sync.wait();
+            }
+        }
+    }
+
+    /**
+     * Mark an operation done.
+     *
+     * <p>Does not wait for the record to be synced. If the record is lost, the operation
+     * is replayed on the next startup, which is harmless because mirror operations
+     * are idempotent.</p>
+     *
+     * @param journalId  The journal id of the operation.
+     */
+    public void complete(long journalId) {
+
+        if (journalId <= 0)
+            return;
+
+        synchronized (_sync) {
+            if (_pending.remove(journalId) == null || _error != null || !_isRunning)
+                return;
+
+            try {
+                writeRecord(_buffer, RECORD_DONE, journalId, null);
+            } catch (IOException e) {
+                // writing to a byte array does not fail
+                throw new AssertionError(e);
+            }
+
+            _sync.notifyAll();
+        }
+    }
+
+    /**
+     * Sync remaining records and close the journal file.
+     */
+    public void close() {
+
+        synchronized (_sync) {
+            if (!_isRunning)
+                return;
+
+            _isRunning = false;
+            _sync.notifyAll();
+        }
+
+        try {
+            _writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            _raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write a checkpoint containing only the pending operations and replace
+     * the journal file with it.
+     *
+     * <p>Must only be called from the writer thread or before it is started.</p>
+     *
+     * @throws IOException
+     */
+    private void checkpoint() throws IOException {
+
+        RecordBuffer checkpoint = new RecordBuffer();
+        long records;
+
+        synchronized (_sync) {
+            for (Map.Entry<Long, TransferTask> entry : _pending.entrySet()) {
+                writeRecord(checkpoint, RECORD_ADD, entry.getKey(), entry.getValue());
+            }
+            records = _pending.size();
+        }
+
+        File temp = new File(_file.getPath() + ".tmp");
+
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            writeFully(channel, checkpoint.toByteBuffer());
+            channel.force(true);
+        }
+
+        _raf.close();
+
+        Files.move(temp.toPath(), _file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        open();
+        _channel.position(_channel.size());
+        _records = records;
+    }
+
+    /**
+     * Open the journal file.
+     */
+    private void open() throws IOException {
+        _raf = new RandomAccessFile(_file, "rw");
+        _channel = _raf.getChannel();
+    }
+
+    /**
+     * Read the journal file and return the pending operations. Truncates a
+     * torn record at the end of the file.
+     */
+    private List<TransferTask> read() throws IOException {
+
+        long validLength = 0;
+
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(_file), 64 * 1024))) {
+
+            CRC32 crc = new CRC32();
+
+            while (true) {
+
+                int length;
+                int checksum;
+                byte[] payload;
+
+                try {
+                    length = input.readInt();
+                    checksum = input.readInt();
+
+                    if (length <= 0 || length > 1024 * 1024)
+                        break;
+
+                    payload = new byte[length];
+                    input.readFully(payload);
+                }
+                catch (EOFException e) {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(payload, 0, payload.length);
+                if ((int)crc.getValue() != checksum)
+                    break;
+
+                readRecord(payload);
+                validLength += 8 + length;
+                _records++;
+            }
+        }
+
+        if (validLength < _channel.size()) {
+            System.err.println("Discarding torn journal record at offset " + validLength + '.');
+            _channel.truncate(validLength);
+        }
+
+        return new ArrayList<>(_pending.values());
+    }
+
+    /**
+     * Apply a record read from the journal file.
+     */
+    private void readRecord(byte[] payload) throws IOException {
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+
+        byte kind = input.readByte();
+        long id = input.readLong();
+
+        _nextId = Math.max(_nextId, id);
+
+        if (kind == RECORD_ADD) {
+            TransferTask.Type type = TransferTask.Type.values()[input.readByte()];
+            String localPath = input.readUTF();
+            String name = input.readUTF();
+            String remotePath = input.readUTF();
+
+            _pending.put(id, TransferTask.fromJournal(id, type, localPath, name, remotePath));
+        }
+        else if (kind == RECORD_DONE) {
+            _pending.remove(id);
+        }
+    }
+
+    /**
+     * Encode a record into a buffer.
+     */
+    private static void writeRecord(RecordBuffer buffer, byte kind, long id,
+                                     TransferTask task) throws IOException {
+
+        ByteArrayOutputStream payloadBuffer = new ByteArrayOutputStream(128);
+        DataOutputStream payload = new DataOutputStream(payloadBuffer);
+
+        payload.writeByte(kind);
+        payload.writeLong(id);
+
+        if (task != null) {
+            payload.writeByte(task.getType().ordinal());
+            payload.writeUTF(task.getFile() != null ? task.getFile().getPath() : "");
+            payload.writeUTF(task.getName());
+            payload.writeUTF(task.getRemotePath());
+        }
+
+        byte[] bytes = payloadBuffer.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+
+        DataOutputStream output = new DataOutputStream(buffer);
+        output.writeInt(bytes.length);
+        output.writeInt((int)crc.getValue());
+        output.write(bytes);
+
+        buffer.records++;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void checkState() throws IOException {
+        if (_error != null)
+            throw new IOException("Journal failed.", _error);
+
+        if (!_isRunning)
+            throw new IOException("Journal is closed.");
+    }
+
+    /**
+     * Journal writer thread. Performs group commit.
+     */
+    private class Writer implements Runnable {
+
+        @Override
+        public void run() {
+
+            while (true) {
+
+                long targetId;
+                RecordBuffer batch;
+                boolean isCompactNeeded;
+
+                synchronized (_sync) {
+
+                    while (_buffer.size() == 0 && _isRunning) {
+                        try {
+                            _sync.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+
+                    if (_buffer.size() == 0 && !_isRunning)
+                        return;
+
+                    // swap buffers so appends can continue while the batch is written.
+                    batch = _buffer;
+                    _buffer = _writing;
+                    _writing = batch;
+                    targetId = _nextId;
+                }
+
+                try {
+                    writeFully(_channel, batch.toByteBuffer());
+                    _channel.force(false);
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+
+                    synchronized (_sync) {
+                        _error = e;
+                        _sync.notifyAll();
+                    }
+                    return;
+                }
+
+                synchronized (_sync) {
+                    _records += batch.records;
+                    batch.reset();
+                    _durableId = targetId;
+                    _sync.notifyAll();
+
+                    isCompactNeeded = getSize() > _compactSize && _pending.size() * 2 < _records;
+                }
+
+                if (isCompactNeeded) {
+                    try {
+                        checkpoint();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+
+                        synchronized (_sync) {
+                            _error = e;
+                            _sync.notifyAll();
+                        }
+                        return;
+                    }
+                }
+            }
+        }
+
+        private long getSize() {
+            try {
+                return _channel.size();
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+    }
+
+    /**
+     * Record buffer that exposes its contents without copying.
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+
+        long records;
+
+        RecordBuffer() {
+            super(8192);
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        @Override
+        public synchronized void reset() {
+            super.reset();
+            records = 0;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.jcwhatever.ftpfolderwatch.pull;
+
+import com.jcwhatever.ftpfolderwatch.filter.IgnoreFile;
+import com.jcwhatever.ftpfolderwatch.ftp.IFtpMirror;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Filters local changes caused by downloads before they are sent to an {@link IFtpMirror}.
+ *
+ * <p>A local file or folder that matches the {@link SyncIndex} was written by a download
+ * and is not uploaded. A local delete performed by a download is not sent either.</p>
+ *
+ * <p>Changes to the temporary files downloads are written to are never sent.</p>
+ */
+public class EchoFilter implements IFtpMirror {
+
+    private final IFtpMirror _mirror;
+    private final SyncIndex _index;
+    private final boolean _isPushEnabled;
+
+    /**
+     * Constructor.
+     *
+     * @param mirror         The mirror to send local changes to.
+     * @param index          The index shared with downloads.
+     * @param isPushEnabled  False to not send any local changes.
+     */
+    public EchoFilter(IFtpMirror mirror, SyncIndex index, boolean isPushEnabled) {
+        _mirror = mirror;
+        _index = index;
+        _isPushEnabled = isPushEnabled;
+    }
+
+    @Override
+    public void upload(File file, String remotePath) throws IOException {
+
+        if (!_isPushEnabled || IgnoreFile.isPartialFile(file.getName()) ||
+                _index.isSynced(SyncIndex.toFolder(remotePath), file))
+            return;
+
+        _mirror.upload(file, remotePath);
+    }
+
+    @Override
+    public void delete(String name, String remotePath) throws IOException {
+
+        if (IgnoreFile.isPartialFile(name))
+            return;
+
+        // consumed even when not pushing so deletes by downloads are not kept.
+        if (_index.consumeDelete(SyncIndex.toFolder(remotePath), name) || !_isPushEnabled)
+            return;
+
+        _mirror.delete(name, remotePath);
+    }
+}
@@ -0,0 +1,764 @@
+package com.jcwhatever.ftpfolderwatch.pull;
+
+import com.jcwhatever.ftpfolderwatch.filter.IPathFilter;
+import com.jcwhatever.ftpfolderwatch.filter.IgnoreFile;
+import com.jcwhatever.ftpfolderwatch.ftp.FtpReplyException;
+import com.jcwhatever.ftpfolderwatch.ftp.IFtpConnection;
+import com.jcwhatever.ftpfolderwatch.ftp.IFtpHandler;
+import com.jcwhatever.ftpfolderwatch.ftp.IFtpMirror;
+import com.jcwhatever.ftpfolderwatch.pull.SyncIndex.Entry;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the remote folder for changes and downloads them to the local folder.
+ *
+ * <p>Folders are listed using MLSD when the server supports it, otherwise LIST. Listings
+ * are compared with the {@link SyncIndex} to find new, changed and removed files. Changes
+ * are downloaded by a pool of threads, each with its own connection.</p>
+ *
+ * <p>When unchanged folders are not checked, the modify fact of each folder is requested
+ * with MLST and folders with the same modify fact as the previous scan are not listed
+ * again. This is much cheaper than listing every folder, but most servers only update
+ * the modify fact of a folder when files are added, removed or renamed in it, so files
+ * overwritten in place are not detected.</p>
+ *
+ * <p>Downloads are written to a hidden temporary file, which is never mirrored, and moved
+ * into place once complete. The file is recorded in the index before it is moved so that
+ * the resulting local change is recognized as an echo by the {@link EchoFilter}.</p>
+ *
+ * <p>When mirroring in both directions, a file changed on both sides keeps the version
+ * modified last, and local files that differ from the index are never deleted or
+ * overwritten by an older remote file.</p>
+ */
+public class RemotePuller {
+
+    private final File _folder;
+    private final Path _folderPath;
+    private final String _rootFolder;
+    private final SyncIndex _index;
+    private final IFtpConnection _scanConnection;
+    private final BlockingQueue<IFtpConnection> _sessions;
+    private final boolean _isBidirectional;
+    private final ScheduledExecutorService _scanner;
+    private final ExecutorService _downloads;
+    private final Map<String, CachedFolder> _listings = new HashMap<>(10);
+    private final Set<String> _downloading = new HashSet<>(10);
+    private final Object _sync = new Object();
+
+    private long _interval = 30 * 1000;
+    private boolean _isCheckUnchangedFolders = true;
+    private Boolean _isMlsd;
+    private boolean _isPaused;
+    private boolean _isDisposed;
+
+    private volatile IPathFilter _filter;
+    private volatile IFtpMirror _uploadMirror;
+    private volatile long _lastScan;
+
+    /**
+     * Constructor.
+     *
+     * @param folder           The local folder.
+     * @param remoteFolder     The remote folder to download from.
+     * @param index            The index shared with uploads.
+     * @param scanConnection   The connection used to list remote folders.
+     * @param connections      The connections used to download files. One download
+     *                         thread is started per connection.
+     * @param isBidirectional  True if local changes are also uploaded.
+     */
+    public RemotePuller(File folder, String remoteFolder, SyncIndex index,
+                        IFtpConnection scanConnection, List<IFtpConnection> connections,
+                        boolean isBidirectional) {
+
+        if (connections.isEmpty())
+            throw new IllegalArgumentException("At least one download connection is required.");
+
+        _folder = folder;
+        _folderPath = folder.toPath().toAbsolutePath().normalize();
+        _rootFolder = remoteFolder;
+        _index = index;
+        _scanConnection = scanConnection;
+        _sessions = new ArrayBlockingQueue<>(connections.size(), false, connections);
+        _isBidirectional = isBidirectional;
+
+        _scanner = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("RemotePuller"));
+        _downloads = Executors.newFixedThreadPool(connections.size(), new NamedThreadFactory("Download"));
+    }
+
+    /**
+     * Set the number of milliseconds between scans. Default is 30 seconds.
+     */
+    public void setInterval(long interval) {
+        _interval = interval;
+    }
+
+    /**
+     * Set if folders with an unchanged modify fact are listed. Default is true.
+     *
+     * @param isChecked  False to skip listing unchanged folders. Files overwritten in
+     *                   place are not detected.
+     */
+    public void setCheckUnchangedFolders(boolean isChecked) {
+        _isCheckUnchangedFolders = isChecked;
+    }
+
+    /**
+     * Set the filter of local files and folders that are not mirrored.
+     */
+    public void setFilter(IPathFilter filter) {
+        _filter = filter;
+    }
+
+    /**
+     * Set the mirror used to upload local files that are newer than changed
+     * remote files when mirroring in both directions.
+     */
+    public void setUploadMirror(IFtpMirror mirror) {
+        _uploadMirror = mirror;
+    }
+
+    /**
+     * Start polling.
+     */
+    public void start() {
+        _scanner.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        }, 0, _interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the number of downloads that are queued or in progress.
+     */
+    public int size() {
+        synchronized (_downloading) {
+            return _downloading.size();
+        }
+    }
+
+    /**
+     * Get the time the last scan finished.
+     *
+     * @return  The time in epoch milliseconds or 0 if no scan has finished.
+     */
+    public long getLastScan() {
+        return _lastScan;
+    }
+
+    /**
+     * Stop scanning and downloading. A download in progress is finished.
+     */
+    public void pause() {
+        synchronized (_sync) {
+            _isPaused = true;
+        }
+    }
+
+    /**
+     * Resume scanning and downloading.
+     */
+    public void resume() {
+        synchronized (_sync) {
+            _isPaused = false;
+            _sync.notifyAll();
+        }
+    }
+
+    /**
+     * Stop scanning and wait for queued downloads to finish unless paused.
+     *
+     * @param timeout  The max number of milliseconds to wait.
+     *
+     * @throws InterruptedException
+     */
+    public void dispose(long timeout) throws InterruptedException {
+
+        boolean isPaused;
+
+        synchronized (_sync) {
+            isPaused = _isPaused;
+            _isDisposed = true;
+            _sync.notifyAll();
+        }
+
+        _scanner.shutdownNow();
+
+        if (isPaused) {
+            _downloads.shutdownNow();
+        }
+        else {
+            _downloads.shutdown();
+        }
+
+        if (!_downloads.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+            _downloads.shutdownNow();
+    }
+
+    /**
+     * Scan the remote folder for changes.
+     */
+    private void scan() {
+
+        synchronized (_sync) {
+            if (_isPaused || _isDisposed)
+                return;
+        }
+
+        try {
+            _scanConnection.connect(new IFtpHandler() {
+                @Override
+                public void handle(FTPClient ftp) throws IOException {
+
+                    if (_isMlsd == null)
+                        _isMlsd = ftp.hasFeature("MLST");
+
+                    ArrayDeque<String> folders = new ArrayDeque<>(10);
+                    folders.add("");
+
+                    String folder;
+                    while ((folder = folders.pollFirst()) != null) {
+
+                        synchronized (_sync) {
+                            if (_isDisposed)
+                                return;
+                        }
+
+                        scanFolder(ftp, folder, folders);
+                    }
+                }
+            });
+
+            _lastScan = System.currentTimeMillis();
+        }
+        catch (IOException e) {
+            System.err.println("Remote scan failed: " + e.getMessage());
+        }
+        catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * List a remote folder, compare it with the index and add its sub folders
+     * to the folder queue.
+     */
+    private void scanFolder(FTPClient ftp, String folder, ArrayDeque<String> folders) throws IOException {
+
+        String remotePath = getRemotePath(folder);
+        boolean isCached = !_isCheckUnchangedFolders && _isMlsd;
+        long modified = 0;
+
+        if (isCached) {
+
+            FTPFile info = ftp.mlistFile(remotePath);
+            modified = info != null ? SyncIndex.getModified(info) : 0;
+
+            CachedFolder cached = _listings.get(folder);
+            if (cached != null && modified != 0 && cached.modified == modified) {
+
+                for (String name : cached.folders) {
+                    folders.addLast(SyncIndex.getKey(folder, name));
+                }
+                return;
+            }
+        }
+
+        long listed = System.currentTimeMillis();
+
+        FTPFile[] files = _isMlsd
+                ? ftp.mlistDir(remotePath)
+                : ftp.listFiles(remotePath);
+
+        if (!FTPReply.isPositiveCompletion(ftp.getReplyCode())) {
+
+            // removed since the parent folder was listed.
+            if (ftp.getReplyCode() == FTPReply.FILE_UNAVAILABLE)
+                return;
+
+            throw new FtpReplyException("Failed to list " + remotePath,
+                    ftp.getReplyCode(), ftp.getReplyString());
+        }
+
+        Set<String> names = new HashSet<>(files != null ? files.length : 0);
+        List<String> subFolders = new ArrayList<>(10);
+
+        if (files != null) {
+            for (FTPFile file : files) {
+
+                String name = file.getName();
+                if (name == null || name.equals(".") || name.equals(".."))
+                    continue;
+
+                // a name from the server must not point outside the local folder.
+                if (!isSafeName(name)) {
+                    System.err.println("Skipping remote file with an invalid name in " +
+                            getRemotePath(folder) + ": " + name);
+                    continue;
+                }
+
+                File local = getLocalFile(folder, name);
+                if (!isInFolder(local)) {
+                    System.err.println("Skipping remote file outside of the local folder: " + local);
+                    continue;
+                }
+
+                boolean isFolder = file.isDirectory();
+
+                if (isExcluded(local, isFolder))
+                    continue;
+
+                names.add(name);
+
+                if (isFolder) {
+                    if (onRemoteFolder(folder, name, local)) {
+                        subFolders.add(name);
+                        folders.addLast(SyncIndex.getKey(folder, name));
+                    }
+                }
+                else if (file.isFile()) {
+                    long precision = SyncIndex.getPrecision(file);
+                    onRemoteFile(folder, name, file.getSize(), SyncIndex.getModified(file), precision,
+                            local, listed);
+                }
+            }
+        }
+
+        for (String name : _index.getNames(folder)) {
+            if (!names.contains(name))
+                onRemoteRemoved(folder, name, listed);
+        }
+
+        if (isCached)
+            _listings.put(folder, new CachedFolder(modified, subFolders));
+    }
+
+    /**
+     * Handle a folder found in a remote listing.
+     *
+     * @return  True to scan the folder.
+     */
+    private boolean onRemoteFolder(String folder, String name, File local) {
+
+        Entry entry = _index.get(folder, name);
+
+        if (local.isDirectory()) {
+            if (entry == null)
+                _index.putFolder(folder, name);
+            return true;
+        }
+
+        // deleted locally, the delete is being uploaded.
+        if (_isBidirectional && entry != null)
+            return false;
+
+        if (local.exists()) {
+            System.err.println("Can't download folder, a file is in the way: " + local);
+            return false;
+        }
+
+        // index first so the create is recognized as an echo.
+        _index.putFolder(folder, name);
+
+        if (!local.mkdir()) {
+            System.err.println("Failed to create folder: " + local);
+            return false;
+        }
+
+        System.out.println("Created folder: " + SyncIndex.getKey(folder, name));
+        return true;
+    }
+
+    /**
+     * Handle a file found in a remote listing.
+     *
+     * @param precision  The precision of the remote modified time in milliseconds.
+     */
+    private void onRemoteFile(String folder, String name, long size, long modified, long precision,
+                              File local, long listed) {
+
+        Entry entry = _index.get(folder, name);
+
+        // recorded after the listing, the listing may be out of date.
+        if (entry != null && entry.indexed >= listed)
+            return;
+
+        if (entry != null && !entry.isFolder && entry.remoteSize == size) {
+
+            // uploaded to a server that did not report the modified time.
+            if (entry.remoteModified == 0) {
+                _index.setRemoteModified(folder, name, modified);
+                return;
+            }
+
+            if (entry.remoteModified == modified) {
+
+                // restore a local file removed while only pulling.
+                if (!_isBidirectional && !local.exists())
+                    download(folder, name, size, modified);
+
+                return;
+            }
+        }
+
+        if (local.isFile()) {
+
+            // already the same, i.e. first scan. The size alone does not
+            // show that the contents are the same.
+            if (entry == null && local.length() == size && modified != 0 &&
+                    Math.abs(local.lastModified() - modified) < precision) {
+                _index.putFile(folder, name, size, modified, local);
+                return;
+            }
+
+            boolean isLocalChanged = entry == null || !_index.isSynced(folder, local);
+
+            if (_isBidirectional && isLocalChanged && local.lastModified() >= modified) {
+                System.out.println("Changed on both sides, keeping newer local file: " +
+                        SyncIndex.getKey(folder, name));
+                upload(folder, local);
+                return;
+            }
+        }
+
+        download(folder, name, size, modified);
+    }
+
+    /**
+     * Handle a file or folder in the index that is not in a remote listing.
+     */
+    private void onRemoteRemoved(String folder, String name, long listed) {
+
+        Entry entry = _index.get(folder, name);
+        if (entry == null || entry.indexed >= listed)
+            return;
+
+        synchronized (_downloading) {
+            if (_downloading.contains(SyncIndex.getKey(folder, name)))
+                return;
+        }
+
+        if (entry.isFolder) {
+            removeFolder(folder, name);
+            return;
+        }
+
+        File local = getLocalFile(folder, name);
+
+        if (!local.exists()) {
+            _index.remove(folder, name);
+            return;
+        }
+
+        removeFile(folder, name, local);
+    }
+
+    /**
+     * Delete a local file removed remotely, unless changed locally when
+     * mirroring in both directions.
+     */
+    private void removeFile(String folder, String name, File local) {
+
+        if (_isBidirectional && !_index.isSynced(folder, local)) {
+            System.out.println("Removed remotely but changed locally, keeping: " +
+                    SyncIndex.getKey(folder, name));
+            _index.remove(folder, name);
+            upload(folder, local);
+            return;
+        }
+
+        _index.removeLocal(folder, name);
+
+        if (local.delete()) {
+            System.out.println("Deleted local file: " + SyncIndex.getKey(folder, name));
+        }
+        else {
+            System.err.println("Failed to delete local file: " + local);
+        }
+    }
+
+    /**
+     * Delete a local folder removed remotely. Local files that were changed
+     * are kept when mirroring in both directions.
+     */
+    private void removeFolder(String folder, String name) {
+
+        String key = SyncIndex.getKey(folder, name);
+
+        // deepest first so folders are empty when deleted.
+        List<String> paths = _index.getFolders(key);
+        if (!paths.contains(key))
+            paths.add(key);
+
+        for (String path : paths) {
+
+            for (String childName : _index.getNames(path)) {
+
+                Entry child = _index.get(path, childName);
+                File file = getLocalFile(path, childName);
+
+                if (child != null && !child.isFolder && file.isFile())
+                    removeFile(path, childName, file);
+            }
+
+            File localFolder = getLocalFile(path);
+            String[] contents = localFolder.list();
+
+            int index = path.lastIndexOf('/');
+            String parent = index == -1 ? "" : path.substring(0, index);
+            String folderName = path.substring(index + 1);
+
+            if (contents != null && contents.length == 0) {
+                _index.removeLocal(parent, folderName);
+
+                if (localFolder.delete())
+                    System.out.println("Deleted local folder: " + path);
+            }
+            else {
+                _index.remove(parent, folderName);
+            }
+        }
+
+        Iterator<String> iterator = _listings.keySet().iterator();
+        while (iterator.hasNext()) {
+            String path = iterator.next();
+            if (path.equals(key) || path.startsWith(key + '/'))
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Queue a file download.
+     */
+    private void download(final String folder, final String name, final long size, final long modified) {
+
+        final String key = SyncIndex.getKey(folder, name);
+
+        synchronized (_downloading) {
+            if (!_downloading.add(key))
+                return;
+        }
+
+        _downloads.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                try {
+                    awaitResume();
+
+                    IFtpConnection connection = _sessions.take();
+                    try {
+                        fetch(connection, folder, name, size, modified);
+                    }
+                    finally {
+                        _sessions.add(connection);
+                    }
+                }
+                catch (InterruptedException ignore) {
+                    // disposed
+                }
+                catch (IOException e) {
+                    // retried on the next scan since the index is unchanged.
+                    System.err.println("Failed to download " + key + ": " + e.getMessage());
+                }
+                catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                finally {
+                    synchronized (_downloading) {
+                        _downloading.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Download a file.
+     */
+    private void fetch(IFtpConnection connection, final String folder, final String name,
+                       long size, long modified) throws IOException {
+
+        final String key = SyncIndex.getKey(folder, name);
+        final String remotePath = getRemotePath(key);
+        File target = getLocalFile(folder, name);
+        final File temp = new File(target.getParentFile(), '.' + name + IgnoreFile.PARTIAL_SUFFIX);
+
+        try {
+            connection.connect(new IFtpHandler() {
+                @Override
+                public void handle(FTPClient ftp) throws IOException {
+
+                    ftp.setFileType(FTP.BINARY_FILE_TYPE);
+
+                    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+                        if (!ftp.retrieveFile(remotePath, out)) {
+                            throw new FtpReplyException("Failed to download: " + key,
+                                    ftp.getReplyCode(), ftp.getReplyString());
+                        }
+                    }
+                }
+            });
+
+            // changed while downloading, get it on the next scan.
+            if (size >= 0 && temp.length() != size)
+                throw new IOException("Remote file changed while downloading.");
+
+            if (modified > 0)
+                temp.setLastModified(modified);
+
+            // index first so the local change is recognized as an echo.
+            _index.putFile(folder, name, size, modified, temp);
+
+            try {
+                Files.move(temp.toPath(), target.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e) {
+            if (temp.exists() && !temp.delete())
+                System.err.println("Failed to delete " + temp);
+            throw e;
+        }
+
+        System.out.println("Downloaded: " + key);
+    }
+
+    /**
+     * Upload a local file that is newer than the remote file.
+     */
+    private void upload(String folder, File local) {
+
+        IFtpMirror mirror = _uploadMirror;
+        if (mirror == null)
+            return;
+
+        try {
+            mirror.upload(local, folder.replace('/', File.separatorChar));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Wait while paused.
+     *
+     * @throws InterruptedException if disposed while paused.
+     */
+    private void awaitResume() throws InterruptedException {
+        synchronized (_sync) {
+            while (_isPaused) {
+                if (_isDisposed)
+                    throw new InterruptedException();
+
+                _sync.wait();
+            }
+        }
+    }
+
+    /**
+     * Determine if a local file or folder is excluded from mirroring.
+     */
+    private boolean isExcluded(File local, boolean isFolder) {
+        IPathFilter filter = _filter;
+        return filter != null && filter.isExcluded(local, isFolder);
+    }
+
+    /**
+     * Determine if a remote file name can be used as a local file name.
+     */
+    private static boolean isSafeName(String name) {
+        return !name.isEmpty() && !name.equals(".") && !name.equals("..") &&
+                name.indexOf('/') == -1 && name.indexOf('\\') == -1 && name.indexOf('\0') == -1;
+    }
+
+    /**
+     * Determine if a local file is inside the mirrored folder.
+     */
+    private boolean isInFolder(File local) {
+        Path path = local.toPath().toAbsolutePath().normalize();
+        return !path.equals(_folderPath) && path.startsWith(_folderPath);
+    }
+
+    private File getLocalFile(String folder, String name) {
+        return getLocalFile(SyncIndex.getKey(folder, name));
+    }
+
+    private File getLocalFile(String key) {
+        return key.isEmpty()
+                ? _folder
+                : new File(_folder, key.replace('/', File.separatorChar));
+    }
+
+    private String getRemotePath(String key) {
+        String path = Paths.get(_rootFolder, key).toString().replace('\\', '/');
+        return path.startsWith("/") ? path : '/' + path;
+    }
+
+    /**
+     * A remote folder listed during a previous scan.
+     */
+    private static class CachedFolder {
+
+        final long modified;
+        final String[] folders;
+
+        CachedFolder(long modified, List<String> folders) {
+            this.modified = modified;
+            this.folders = folders.toArray(new String[folders.size()]);
+        }
+    }
+
+    /**
+     * Creates named daemon threads.
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String _name;
+
+        NamedThreadFactory(String name) {
+            _name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, _name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.jcwhatever.ftpfolderwatch.pull;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of files that are the same locally and on the remote site, shared
+ * by uploads and downloads.
+ *
+ * <p>For each file the remote size and modified time and the local size and modified
+ * time are recorded when it is uploaded or downloaded. Downloads compare remote listings
+ * with the index to find remote changes, and local changes reported by the folder
+ * watcher that match the index are echoes of downloads and are not uploaded.</p>
+ *
+ * <p>Paths are relative to the mirrored folder using '/' as the separator. The root
+ * folder is the empty string.</p>
+ */
+public class SyncIndex {
+
+    private final Map<String, Map<String, Entry>> _folders = new HashMap<>(10);
+    private final Set<String> _deleted = new HashSet<>(10);
+
+    /**
+     * Get an entry.
+     *
+     * @param folder  The folder path.
+     * @param name    The file or folder name.
+     *
+     * @return  The entry or null if not indexed.
+     */
+    synchronized Entry get(String folder, String name) {
+        Map<String, Entry> entries = _folders.get(folder);
+        return entries != null ? entries.get(name) : null;
+    }
+
+    /**
+     * Get the names of the entries in a folder.
+     */
+    public synchronized List<String> getNames(String folder) {
+        Map<String, Entry> entries = _folders.get(folder);
+        return entries != null
+                ? new ArrayList<>(entries.keySet())
+                : new ArrayList<String>(0);
+    }
+
+    /**
+     * Get the paths of a folder and all indexed folders in it, deepest first.
+     */
+    public synchronized List<String> getFolders(String folder) {
+
+        List<String> result = new ArrayList<>(10);
+        String prefix = folder.isEmpty() ? "" : folder + '/';
+
+        for (String path : _folders.keySet()) {
+            if (path.equals(folder) || path.startsWith(prefix))
+                result.add(path);
+        }
+
+        // longer paths are deeper
+        Collections.sort(result, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return Integer.compare(o2.length(), o1.length());
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Record a file that is the same locally and remotely.
+     *
+     * @param folder          The folder path.
+     * @param name            The file name.
+     * @param remoteSize      The size of the remote file.
+     * @param remoteModified  The modified time of the remote file or 0 if unknown.
+     * @param local           The local file.
+     */
+    public synchronized void putFile(String folder, String name,
+                                     long remoteSize, long remoteModified, File local) {
+        put(folder, name, new Entry(false, remoteSize, remoteModified, local.length(), local.lastModified()));
+        _deleted.remove(getKey(folder, name));
+    }
+
+    /**
+     * Set the remote modified time of a file recorded without one.
+     *
+     * @param folder          The folder path.
+     * @param name            The file name.
+     * @param remoteModified  The modified time of the remote file.
+     */
+    public synchronized void setRemoteModified(String folder, String name, long remoteModified) {
+
+        Entry entry = get(folder, name);
+        if (entry == null || entry.isFolder)
+            return;
+
+        put(folder, name, new Entry(false, entry.remoteSize, remoteModified,
+                entry.localSize, entry.localModified));
+    }
+
+    /**
+     * Record a folder that exists locally and remotely.
+     *
+     * @param folder  The parent folder path.
+     * @param name    The folder name.
+     */
+    public synchronized void putFolder(String folder, String name) {
+        put(folder, name, new Entry(true, 0, 0, 0, 0));
+        _deleted.remove(getKey(folder, name));
+    }
+
+    /**
+     * Remove a file or folder from the index.
+     *
+     * @param folder  The parent folder path.
+     * @param name    The file or folder name.
+     */
+    public synchronized void remove(String folder, String name) {
+
+        Map<String, Entry> entries = _folders.get(folder);
+        if (entries != null) {
+            entries.remove(name);
+
+            if (entries.isEmpty())
+                _folders.remove(folder);
+        }
+
+        // remove folder contents
+        String key = getKey(folder, name);
+        for (String path : getFolders(key)) {
+            _folders.remove(path);
+        }
+    }
+
+    /**
+     * Remove a file or folder from the index before it is deleted locally so that
+     * the delete is recognized as an echo.
+     *
+     * @param folder  The parent folder path.
+     * @param name    The file or folder name.
+     */
+    public synchronized void removeLocal(String folder, String name) {
+        remove(folder, name);
+        _deleted.add(getKey(folder, name));
+    }
+
+    /**
+     * Determine if a local file or folder matches the index.
+     *
+     * @param folder  The parent folder path.
+     * @param file    The local file or folder.
+     */
+    public synchronized boolean isSynced(String folder, File file) {
+
+        Entry entry = get(folder, file.getName());
+        if (entry == null)
+            return false;
+
+        if (entry.isFolder)
+            return file.isDirectory();
+
+        return file.isFile() &&
+                file.length() == entry.localSize &&
+                file.lastModified() == entry.localModified;
+    }
+
+    /**
+     * Determine if a local delete was caused by a download and forget it.
+     *
+     * @param folder  The parent folder path.
+     * @param name    The file or folder name.
+     */
+    public synchronized boolean consumeDelete(String folder, String name) {
+        return _deleted.remove(getKey(folder, name));
+    }
+
+    /**
+     * Record a file after it is uploaded.
+     *
+     * <p>The remote modified time is requested from the server so the upload is not
+     * seen as a remote change.</p>
+     *
+     * @param ftp     The client the file was uploaded with. The working directory
+     *                must be the folder the file was uploaded to.
+     * @param folder  The folder path.
+     * @param file    The uploaded file.
+     *
+     * @throws IOException
+     */
+    public void recordUpload(FTPClient ftp, String folder, File file) throws IOException {
+
+        FTPFile remote = ftp.mlistFile(file.getName());
+        if (remote == null)
+            remote = ftp.mdtmFile(file.getName());
+
+        long remoteModified = remote != null ? getModified(remote) : 0;
+
+        // the size the server reports, i.e. with line endings converted by the server.
+        long remoteSize = remote != null && remote.getSize() >= 0
+                ? remote.getSize()
+                : file.length();
+
+        putFile(folder, file.getName(), remoteSize, remoteModified, file);
+    }
+
+    /**
+     * Get the modified time of a remote file.
+     *
+     * @return  The time in epoch milliseconds or 0 if unknown.
+     */
+    public static long getModified(FTPFile file) {
+        return file.getTimestamp() != null
+                ? file.getTimestamp().getTimeInMillis()
+                : 0;
+    }
+
+    /**
+     * Get the precision of the modified time of a remote file, i.e. a listing
+     * that only shows the minute or, for older files, the day.
+     *
+     * <p>Must be called before the time is read from the timestamp.</p>
+     *
+     * @return  The precision in milliseconds, at least one second, or 0 if the
+     *          time is unknown.
+     */
+    public static long getPrecision(FTPFile file) {
+
+        Calendar time = file.getTimestamp();
+        if (time == null)
+            return 0;
+
+        // the parser leaves the fields below the precision unset.
+        if (!time.isSet(Calendar.HOUR_OF_DAY))
+            return 24 * 60 * 60 * 1000;
+
+        if (!time.isSet(Calendar.MINUTE))
+            return 60 * 60 * 1000;
+
+        if (!time.isSet(Calendar.SECOND))
+            return 60 * 1000;
+
+        return 1000;
+    }
+
+    /**
+     * Convert a remote path of a folder relative to the mirrored folder into an
+     * index folder path.
+     */
+    public static String toFolder(String remotePath) {
+        String folder = remotePath.replace('\\', '/');
+        return folder.equals(".") ? "" : folder;
+    }
+
+    /**
+     * Get the path of a file or folder from its parent folder path and name.
+     */
+    public static String getKey(String folder, String name) {
+        return folder.isEmpty() ? name : folder + '/' + name;
+    }
+
+    private void put(String folder, String name, Entry entry) {
+
+        Map<String, Entry> entries = _folders.get(folder);
+        if (entries == null) {
+            entries = new HashMap<>(10);
+            _folders.put(folder, entries);
+        }
+
+        entries.put(name, entry);
+    }
+
+    /**
+     * An indexed file or folder.
+     */
+    static class Entry {
+
+        final boolean isFolder;
+        final long remoteSize;
+        final long remoteModified;
+        final long localSize;
+        final long localModified;
+        final long indexed = System.currentTimeMillis();
+
+        Entry(boolean isFolder, long remoteSize, long remoteModified, long localSize, long localModified) {
+            this.isFolder = isFolder;
+            this.remoteSize = remoteSize;
+            this.remoteModified = remoteModified;
+            this.localSize = localSize;
+            this.localModified = localModified;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.jcwhatever.ftpfolderwatch.retry;
+
+/**
+ * Stops operations from being sent to a remote site that appears to be down.
+ *
+ * <p>After a number of consecutive connection failures the breaker opens. While
+ * open, callers of {@link #await} are blocked. Once the open period expires, a health
+ * probe is run. If it succeeds the breaker closes, otherwise it stays open for a
+ * longer period.</p>
+ */
+public class CircuitBreaker {
+
+    private final IHealthProbe _probe;
+    private final int _threshold;
+    private final RetryPolicy _probePolicy;
+    private final Object _sync = new Object();
+
+    private int _failures;
+    private int _probes;
+    private long _openUntil;
+    private boolean _isOpen;
+
+    /**
+     * Constructor.
+     *
+     * @param probe        The health probe used to check if the remote site is back.
+     * @param threshold    The number of consecutive failures that open the breaker.
+     * @param probePolicy  Determines the delay between health probes.
+     */
+    public CircuitBreaker(IHealthProbe probe, int threshold, RetryPolicy probePolicy) {
+        _probe = probe;
+        _threshold = threshold;
+        _probePolicy = probePolicy;
+    }
+
+    /**
+     * Determine if the breaker is open.
+     */
+    public boolean isOpen() {
+        synchronized (_sync) {
+            return _isOpen;
+        }
+    }
+
+    /**
+     * Record a successful operation.
+     */
+    public void recordSuccess() {
+        synchronized (_sync) {
+            _failures = 0;
+        }
+    }
+
+    /**
+     * Record a failed operation.
+     */
+    public void recordFailure() {
+        synchronized (_sync) {
+            _failures++;
+
+            if (!_isOpen && _failures >= _threshold) {
+                _isOpen = true;
+                _probes = 0;
+                _openUntil = System.currentTimeMillis() + _probePolicy.getDelay(1);
+                System.err.println("Remote site appears to be down. Pausing transfers.");
+            }
+        }
+    }
+
+    /**
+     * Wait until the breaker is closed.
+     *
+     * <p>Runs the health probe on the calling thread when the open period expires.</p>
+     *
+     * @throws InterruptedException
+     */
+    public void await() throws InterruptedException {
+
+        while (true) {
+
+            long wait;
+
+            synchronized (_sync) {
+                if (!_isOpen)
+                    return;
+
+                wait = _openUntil - System.currentTimeMillis();
+            }
+
+            if (wait > 0) {
+                Thread.sleep(wait);
+                continue;
+            }
+
+            boolean isAvailable = _probe.probe();
+
+            synchronized (_sync) {
+                if (isAvailable) {
+                    _isOpen = false;
+                    _failures = 0;
+                    System.out.println("Remote site is available. Resuming transfers.");
+                    return;
+                }
+
+                _probes++;
+                _openUntil = System.currentTimeMillis() + _probePolicy.getDelay(_probes + 1);
+            }
+        }
+    }
+}
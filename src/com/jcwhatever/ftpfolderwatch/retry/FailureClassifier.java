@@ -0,0 +1,82 @@
+package com.jcwhatever.ftpfolderwatch.retry;
+
+import com.jcwhatever.ftpfolderwatch.ftp.FtpReplyException;
+import com.jcwhatever.ftpfolderwatch.verify.ChecksumMismatchException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+
+/**
+ * Classifies mirror operation failures as transient (worth retrying)
+ * or permanent.
+ */
+public class FailureClassifier {
+
+    private FailureClassifier() {}
+
+    /**
+     * Determine if a failure is transient.
+     *
+     * <p>FTP 4xx replies and connection level I/O errors are transient. FTP 5xx replies
+     * and missing local files are permanent, with the exception of reply codes that
+     * indicate the server is temporarily unable to process the request.</p>
+     *
+     * @param e  The failure.
+     *
+     * @return  True if the operation should be retried.
+     */
+    public static boolean isTransient(IOException e) {
+
+        if (e instanceof FtpReplyException)
+            return isTransientReply(((FtpReplyException) e).getReplyCode());
+
+        // local file no longer exists, retrying won't help.
+        if (e instanceof FileNotFoundException || e instanceof NoSuchFileException)
+            return false;
+
+        // connection closed, reset, timed out, unknown host, etc.
+        return true;
+    }
+
+    /**
+     * Determine if an FTP reply code indicates a transient failure.
+     *
+     * @param replyCode  The reply code.
+     */
+    public static boolean isTransientReply(int replyCode) {
+
+        // 4xx: transient negative completion
+        if (replyCode >= 400 && replyCode < 500)
+            return true;
+
+        // 5xx: permanent negative completion
+        if (replyCode >= 500 && replyCode < 600)
+            return false;
+
+        // no reply or unexpected reply
+        return true;
+    }
+
+    /**
+     * Determine if a failure indicates the server or the connection to it
+     * is unavailable, as opposed to a failure of a single operation.
+     *
+     * @param e  The failure.
+     */
+    public static boolean isConnectionFailure(IOException e) {
+
+        if (e instanceof FtpReplyException) {
+            int replyCode = ((FtpReplyException) e).getReplyCode();
+
+            // 421 service not available, 425 can't open data connection, 426 connection closed
+            return replyCode == 421 || replyCode == 425 || replyCode == 426;
+        }
+
+        // the server is reachable, the upload is retried.
+        if (e instanceof ChecksumMismatchException)
+            return false;
+
+        return isTransient(e);
+    }
+}
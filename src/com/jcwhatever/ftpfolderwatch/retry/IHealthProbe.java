@@ -0,0 +1,14 @@
+package com.jcwhatever.ftpfolderwatch.retry;
+
+/**
+ * Checks if a remote site is available.
+ */
+public interface IHealthProbe {
+
+    /**
+     * Check if the remote site is available.
+     *
+     * @return  True if available.
+     */
+    boolean probe();
+}
@@ -0,0 +1,63 @@
+package com.jcwhatever.ftpfolderwatch.retry;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter.
+ */
+public class RetryPolicy {
+
+    private final long _baseDelay;
+    private final long _maxDelay;
+    private final int _maxAttempts;
+
+    /**
+     * Constructor.
+     *
+     * @param baseDelay    The delay in milliseconds before the first retry.
+     * @param maxDelay     The max delay in milliseconds between retries.
+     * @param maxAttempts  The max number of attempts including the first. 0 or less is unlimited.
+     */
+    public RetryPolicy(long baseDelay, long maxDelay, int maxAttempts) {
+        _baseDelay = baseDelay;
+        _maxDelay = maxDelay;
+        _maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Get the max number of attempts. 0 or less is unlimited.
+     */
+    public int getMaxAttempts() {
+        return _maxAttempts;
+    }
+
+    /**
+     * Determine if another attempt is allowed.
+     *
+     * @param attempts  The number of attempts already made.
+     */
+    public boolean canRetry(int attempts) {
+        return _maxAttempts <= 0 || attempts < _maxAttempts;
+    }
+
+    /**
+     * Get the delay before the next attempt.
+     *
+     * <p>The delay doubles with each attempt up to the max delay. Half of the
+     * delay is randomized so that failed operations don't retry in lock step.</p>
+     *
+     * @param attempts  The number of attempts already made.
+     *
+     * @return  The delay in milliseconds.
+     */
+    public long getDelay(int attempts) {
+
+        int exponent = Math.max(0, Math.min(attempts - 1, 30));
+        long delay = Math.min(_maxDelay, _baseDelay << exponent);
+        if (delay <= 1)
+            return delay;
+
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+}
@@ -0,0 +1,708 @@
+package com.jcwhatever.ftpfolderwatch.scheduler;
+
+import com.jcwhatever.ftpfolderwatch.filter.IPathFilter;
+import com.jcwhatever.ftpfolderwatch.ftp.IFtpMirror;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Limits the number of operations held in memory by a {@link StabilityGate}
+ * and {@link TransferScheduler} and applies a {@link BackpressurePolicy} to
+ * new operations while the limit is reached.
+ *
+ * <p>Operations are sent to the mirror in front of the stability gate. The queue is full
+ * once the number of uploads held by the gate plus the number of operations queued by the
+ * scheduler reaches the capacity. Depending on the policy, new operations then wait for
+ * space, are queued in a {@link SpillQueue} file, or are collapsed into one marker per
+ * folder that is rescanned later. Operations held back are sent from a separate thread
+ * as space becomes available.</p>
+ *
+ * <p>Operations submitted to the scheduler directly, such as journal replays, are not
+ * limited but count towards the queue.</p>
+ *
+ * <p>Operations left in a durable spill queue are sent once started and the operations
+ * not sent when disposed are kept in it. Folders waiting to be rescanned when disposed
+ * are saved in the rescan file, if one is set, and rescanned once started again.
+ * Operations waiting for space or submitted after being disposed are sent without
+ * waiting, so that they are journaled or sent by the scheduler before it shuts down.</p>
+ */
+public class BackpressureGate implements IFtpMirror {
+
+    // max milliseconds between checks for space, uploads discarded
+    // by the stability gate do not notify.
+    private static final long CHECK_INTERVAL = 100;
+
+    // milliseconds to wait before sending a spilled operation again after it failed.
+    private static final long RETRY_DELAY = 1000;
+
+    // max milliseconds to wait for threads sending operations when disposed.
+    private static final long DISPOSE_TIMEOUT = 1000;
+
+    // line of the rescan file that means all folders.
+    private static final String RESCAN_ALL = "all";
+    private static final String RESCAN_FOLDER = "folder ";
+
+    private final IFtpMirror _mirror;
+    private final StabilityGate _gate;
+    private final TransferScheduler _scheduler;
+    private final int _capacity;
+    private final BackpressurePolicy _policy;
+    private final SpillQueue _spill;
+    private final Set<String> _rescans = new LinkedHashSet<>(10);
+    private final Object _sync = new Object();
+
+    private File _folder;
+    private IPathFilter _filter;
+    private File _rescanFile;
+    private Thread _drainThread;
+    private boolean _isFullRescan;
+    private boolean _isSendingSpilled;
+    private int _submitting;
+    private long _blocked;
+    private long _spilled;
+    private long _collapsed;
+
+    private volatile boolean _isDisposed;
+
+    /**
+     * Constructor.
+     *
+     * @param mirror     The mirror to send operations to. Must send uploads to the gate.
+     * @param gate       The gate holding uploads of files that are being written.
+     * @param scheduler  The scheduler the gate releases uploads to.
+     * @param capacity   The max number of operations held by the gate and scheduler.
+     * @param policy     What to do with new operations while the queue is full.
+     * @param spill      The queue to spill operations to. Required by the spill policy.
+     *
+     * @throws IllegalArgumentException if the policy is spill and there is no spill queue.
+     */
+    public BackpressureGate(IFtpMirror mirror, StabilityGate gate, TransferScheduler scheduler,
+                            int capacity, BackpressurePolicy policy, SpillQueue spill) {
+
+        if (policy == BackpressurePolicy.SPILL && spill == null)
+            throw new IllegalArgumentException("A spill queue is required by the spill policy.");
+
+        _mirror = mirror;
+        _gate = gate;
+        _scheduler = scheduler;
+        _capacity = Math.max(1, capacity);
+        _policy = policy;
+        _spill = policy == BackpressurePolicy.SPILL
+                ? spill
+                : null;
+    }
+
+    /**
+     * Set the mirrored folder and the filter of excluded files. Required by
+     * the collapse policy to rescan folders.
+     *
+     * @param folder  The mirrored folder.
+     * @param filter  The filter of files and folders that are not mirrored.
+     */
+    public void setFolder(File folder, IPathFilter filter) {
+        synchronized (_sync) {
+            _folder = folder;
+            _filter = filter;
+        }
+    }
+
+    /**
+     * Set the file folders waiting to be rescanned are saved in when disposed. Used
+     * by the collapse policy. Folders saved in the file are rescanned when started.
+     *
+     * @param file  The file or null to not save folders.
+     */
+    public void setRescanFile(File file) {
+        synchronized (_sync) {
+            _rescanFile = file;
+        }
+    }
+
+    /**
+     * Start sending operations held back while the queue was full.
+     */
+    public void start() {
+
+        if (_policy == BackpressurePolicy.BLOCK)
+            return;
+
+        if (_policy == BackpressurePolicy.COLLAPSE)
+            loadRescans();
+
+        _drainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "BackpressureGate");
+
+        _drainThread.setDaemon(true);
+        _drainThread.start();
+    }
+
+    /**
+     * Stop sending operations held back. Threads waiting for space send their
+     * operation without waiting and are waited for. Spilled operations are kept
+     * by a durable spill queue and folders waiting to be rescanned are saved in
+     * the rescan file, otherwise they are discarded.
+     */
+    public void dispose() {
+
+        synchronized (_sync) {
+
+            if (_isDisposed)
+                return;
+
+            _isDisposed = true;
+            _sync.notifyAll();
+        }
+
+        if (_drainThread != null) {
+            _drainThread.interrupt();
+
+            try {
+                _drainThread.join(DISPOSE_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (_sync) {
+
+            // released threads send their operation before the scheduler
+            // shuts down, a failed spilled operation is returned to the queue.
+            long end = System.currentTimeMillis() + DISPOSE_TIMEOUT;
+
+            while (true) {
+                long remaining = end - System.currentTimeMillis();
+
+                if (!_isSendingSpilled && (_submitting == 0 || remaining <= 0))
+                    break;
+
+                try {
+                    _sync.wait(_isSendingSpilled ? 0 : remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            if (_spill != null) {
+                if (_spill.size() > 0) {
+                    System.err.println(_spill.isDurable()
+                            ? _spill.size() + " spilled operations were saved in " + _spill.getFile() + '.'
+                            : _spill.size() + " spilled operations were not sent.");
+                }
+
+                _spill.close();
+            }
+
+            if (_policy == BackpressurePolicy.COLLAPSE)
+                saveRescans();
+
+            _rescans.clear();
+            _isFullRescan = false;
+        }
+    }
+
+    /**
+     * Get the policy applied while the queue is full.
+     */
+    public BackpressurePolicy getPolicy() {
+        return _policy;
+    }
+
+    /**
+     * Get the max number of operations held in memory.
+     */
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * Get the number of operations held by the stability gate and scheduler.
+     */
+    public int getDepth() {
+        return _gate.size() + _scheduler.size();
+    }
+
+    /**
+     * Get the number of changes that had to wait for space.
+     */
+    public long getBlockedCount() {
+        synchronized (_sync) {
+            return _blocked;
+        }
+    }
+
+    /**
+     * Get the total number of operations queued in the spill file.
+     */
+    public long getSpilledCount() {
+        synchronized (_sync) {
+            return _spilled;
+        }
+    }
+
+    /**
+     * Get the number of operations currently queued in the spill file.
+     */
+    public long getSpillSize() {
+        return _spill != null ? _spill.size() : 0;
+    }
+
+    /**
+     * Get the total number of uploads collapsed into folder rescans.
+     */
+    public long getCollapsedCount() {
+        synchronized (_sync) {
+            return _collapsed;
+        }
+    }
+
+    /**
+     * Get the number of folders waiting to be rescanned.
+     */
+    public int getRescanCount() {
+        synchronized (_sync) {
+            return _rescans.size() + (_isFullRescan ? 1 : 0);
+        }
+    }
+
+    @Override
+    public void upload(File file, String remotePath) throws IOException {
+        submit(TransferTask.upload(file, remotePath));
+    }
+
+    @Override
+    public void delete(String name, String remotePath) throws IOException {
+        submit(TransferTask.delete(name, remotePath));
+    }
+
+    /**
+     * Send an operation or hold it back according to the policy.
+     */
+    private void submit(TransferTask task) throws IOException {
+
+        synchronized (_sync) {
+            _submitting++;
+        }
+
+        try {
+            switch (_policy) {
+
+                case SPILL:
+                    synchronized (_sync) {
+
+                        // once spilling, later operations are spilled behind
+                        // the earlier ones to keep their order.
+                        if (_spill.size() > 0 || _isSendingSpilled || getDepth() >= _capacity) {
+                            _spill.add(task);
+                            _spilled++;
+                            _sync.notifyAll();
+                            return;
+                        }
+                    }
+
+                    send(task);
+                    return;
+
+                case COLLAPSE:
+                    if (task.getType() == TransferTask.Type.UPLOAD) {
+                        synchronized (_sync) {
+                            if (!_isDisposed && getDepth() >= _capacity) {
+                                collapse(task.getRemotePath());
+                                return;
+                            }
+                        }
+
+                        send(task);
+                        return;
+                    }
+
+                    // deletes can't be recovered by a rescan.
+                    awaitSpace(_capacity, true);
+                    send(task);
+                    return;
+
+                default:
+                    awaitSpace(_capacity, true);
+                    send(task);
+            }
+        }
+        finally {
+            synchronized (_sync) {
+                _submitting--;
+                _sync.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Send an operation to the mirror.
+     */
+    private void send(TransferTask task) throws IOException {
+
+        switch (task.getType()) {
+            case UPLOAD:
+                _mirror.upload(task.getFile(), task.getRemotePath());
+                break;
+            case DELETE:
+                _mirror.delete(task.getName(), task.getRemotePath());
+                break;
+        }
+    }
+
+    /**
+     * Record a folder to rescan once there is space.
+     */
+    private void collapse(String remotePath) {
+
+        _collapsed++;
+
+        if (_isFullRescan)
+            return;
+
+        // too many folders to track, rescan everything instead.
+        if (_rescans.size() >= _capacity && !_rescans.contains(remotePath)) {
+            System.err.println("Too many folders changed while the queue is full, scanning all folders later.");
+            _rescans.clear();
+            _isFullRescan = true;
+        }
+        else {
+            _rescans.add(remotePath);
+        }
+
+        _sync.notifyAll();
+    }
+
+    /**
+     * Wait until the number of held operations is less than a limit.
+     *
+     * @param limit      The number of operations.
+     * @param isCounted  True to count the wait in the blocked count.
+     *
+     * @return  True if there is space, false if disposed or interrupted.
+     */
+    private boolean awaitSpace(int limit, boolean isCounted) {
+
+        if (getDepth() < limit)
+            return !_isDisposed;
+
+        if (isCounted) {
+            synchronized (_sync) {
+                _blocked++;
+            }
+        }
+
+        try {
+            while (getDepth() >= limit) {
+
+                if (_isDisposed)
+                    return false;
+
+                _scheduler.awaitSizeBelow(limit - _gate.size(), CHECK_INTERVAL);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        return !_isDisposed;
+    }
+
+    /**
+     * Send operations held back while the queue was full.
+     */
+    private void drain() {
+
+        // rescans wait for the queue to be half empty so a
+        // folder is not rescanned for every upload sent.
+        int limit = _policy == BackpressurePolicy.COLLAPSE
+                ? Math.max(1, _capacity / 2)
+                : _capacity;
+
+        while (!_isDisposed) {
+
+            try {
+                synchronized (_sync) {
+                    while (!_isDisposed && !hasBacklog()) {
+                        _sync.wait();
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+
+            if (!awaitSpace(limit, false))
+                return;
+
+            try {
+                if (_policy == BackpressurePolicy.SPILL) {
+                    sendSpilled();
+                }
+                else {
+                    rescanNext();
+                }
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+
+                // the operation is sent again later.
+                try {
+                    synchronized (_sync) {
+                        if (!_isDisposed)
+                            _sync.wait(RETRY_DELAY);
+                    }
+                }
+                catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Determine if there are operations held back.
+     */
+    private boolean hasBacklog() {
+        return _spill != null
+                ? _spill.size() > 0
+                : _isFullRescan || !_rescans.isEmpty();
+    }
+
+    /**
+     * Send the next spilled operation. The operation is sent without holding the
+     * lock and is returned to the front of the spill queue if it fails.
+     */
+    private void sendSpilled() throws IOException {
+
+        TransferTask task;
+
+        synchronized (_sync) {
+
+            if (_isDisposed)
+                return;
+
+            try {
+                task = _spill.poll();
+            }
+            catch (IOException e) {
+                System.err.println("Failed to read spill file, " + _spill.size() +
+                        " spilled operations discarded: " + e.getMessage());
+                _spill.clear();
+                return;
+            }
+
+            if (task == null)
+                return;
+
+            // new operations are spilled behind it until it is sent.
+            _isSendingSpilled = true;
+        }
+
+        boolean isSent = false;
+
+        try {
+            send(task);
+            isSent = true;
+        }
+        finally {
+            synchronized (_sync) {
+                _isSendingSpilled = false;
+
+                if (!isSent)
+                    _spill.pushFront(task);
+
+                _sync.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Upload the contents of the next folder waiting to be rescanned.
+     */
+    private void rescanNext() {
+
+        String remotePath = null;
+        boolean isFullRescan;
+        File folder;
+        IPathFilter filter;
+
+        synchronized (_sync) {
+
+            folder = _folder;
+            filter = _filter;
+            isFullRescan = _isFullRescan;
+
+            if (folder == null) {
+                System.err.println("Mirrored folder not set, folders can't be rescanned.");
+                _rescans.clear();
+                _isFullRescan = false;
+                return;
+            }
+
+            if (isFullRescan) {
+                _isFullRescan = false;
+                _rescans.clear();
+            }
+            else {
+                Iterator<String> iterator = _rescans.iterator();
+                if (!iterator.hasNext())
+                    return;
+
+                remotePath = iterator.next();
+                iterator.remove();
+            }
+        }
+
+        boolean isComplete = isFullRescan
+                ? rescan(folder, "", filter, true)
+                : rescan(remotePath.isEmpty() ? folder : new File(folder, remotePath),
+                        remotePath, filter, false);
+
+        // interrupted by dispose, saved to be rescanned again.
+        if (!isComplete) {
+            synchronized (_sync) {
+                if (isFullRescan) {
+                    _isFullRescan = true;
+                }
+                else {
+                    _rescans.add(remotePath);
+                }
+            }
+        }
+    }
+
+    /**
+     * Upload the contents of a folder, waiting for space before each upload.
+     *
+     * @return  True if complete, false if disposed.
+     */
+    private boolean rescan(File folder, String remotePath, IPathFilter filter, boolean isRecursive) {
+
+        File[] files = folder.listFiles();
+        if (files == null)
+            return true;
+
+        for (File file : files) {
+
+            boolean isFolder = file.isDirectory();
+
+            if (filter != null && filter.isExcluded(file, isFolder))
+                continue;
+
+            if (!awaitSpace(_capacity, false))
+                return false;
+
+            try {
+                _mirror.upload(file, remotePath);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            if (isFolder && isRecursive) {
+                boolean isComplete = rescan(file, remotePath.isEmpty()
+                        ? file.getName()
+                        : remotePath + File.separatorChar + file.getName(), filter, true);
+
+                if (!isComplete)
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Restore the folders saved in the rescan file.
+     */
+    private void loadRescans() {
+
+        synchronized (_sync) {
+
+            if (_rescanFile == null || !_rescanFile.isFile())
+                return;
+
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(_rescanFile.toPath(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                // the changes can't be found, scan everything instead.
+                System.err.println("Failed to read " + _rescanFile + ": " + e.getMessage());
+                lines = new ArrayList<>(1);
+                lines.add(RESCAN_ALL);
+            }
+
+            for (String line : lines) {
+                if (line.equals(RESCAN_ALL)) {
+                    _isFullRescan = true;
+                    _rescans.clear();
+                    break;
+                }
+
+                if (line.startsWith(RESCAN_FOLDER))
+                    _rescans.add(line.substring(RESCAN_FOLDER.length()));
+            }
+
+            if (_isFullRescan || !_rescans.isEmpty()) {
+                System.out.println("Rescanning " + (_isFullRescan ? "all" : _rescans.size()) +
+                        " folders changed before the last shutdown.");
+            }
+
+            // kept until saved again when disposed, so a crash rescans them again.
+            _sync.notifyAll();
+        }
+    }
+
+    /**
+     * Save the folders waiting to be rescanned in the rescan file or delete the
+     * file if there are none.
+     */
+    private void saveRescans() {
+
+        boolean hasRescans = _isFullRescan || !_rescans.isEmpty();
+
+        if (_rescanFile == null) {
+            if (hasRescans)
+                System.err.println((_isFullRescan ? "All" : _rescans.size()) + " folders were not rescanned.");
+            return;
+        }
+
+        if (!hasRescans) {
+            if (!_rescanFile.delete() && _rescanFile.exists())
+                System.err.println("Failed to delete " + _rescanFile);
+            return;
+        }
+
+        List<String> lines = new ArrayList<>(_isFullRescan ? 1 : _rescans.size());
+
+        if (_isFullRescan) {
+            lines.add(RESCAN_ALL);
+        }
+        else {
+            for (String remotePath : _rescans) {
+                lines.add(RESCAN_FOLDER + remotePath);
+            }
+        }
+
+        try {
+            Files.write(_rescanFile.toPath(), lines, StandardCharsets.UTF_8);
+            System.err.println((_isFullRescan ? "All" : _rescans.size()) +
+                    " folders waiting to be rescanned were saved in " + _rescanFile + '.');
+        } catch (IOException e) {
+            System.err.println("Failed to save folders waiting to be rescanned in " + _rescanFile +
+                    ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.jcwhatever.ftpfolderwatch.scheduler;
+
+/**
+ * What a {@link BackpressureGate} does with new operations while the
+ * queue is full.
+ */
+public enum BackpressurePolicy {
+
+    /**
+     * Wait for space in the queue. Holds up the folder watcher.
+     */
+    BLOCK,
+
+    /**
+     * Queue operations in a file until there is space.
+     */
+    SPILL,
+
+    /**
+     * Record the folder of each upload and upload the contents of the folder
+     * once there is space. Deletes wait for space.
+     */
+    COLLAPSE;
+
+    /**
+     * Get a policy by its lower case name.
+     *
+     * @throws IllegalArgumentException if the name is not valid.
+     */
+    public static BackpressurePolicy fromName(String name) {
+
+        for (BackpressurePolicy policy : values()) {
+            if (policy.name().toLowerCase().equals(name))
+                return policy;
+        }
+
+        throw new IllegalArgumentException("Invalid backpressure policy: " + name);
+    }
+}
@@ -0,0 +1,85 @@
+package com.jcwhatever.ftpfolderwatch.scheduler;
+
+import java.io.InputStream;
+
+/**
+ * Limits the upload byte rate globally and per connection.
+ *
+ * <p>The global bucket is shared by all limiters created from the same root
+ * limiter using {@link #forConnection}. Each connection limiter additionally
+ * has its own bucket for the per connection cap.</p>
+ */
+public class BandwidthLimiter {
+
+    private final TokenBucket _global;
+    private final TokenBucket _connection;
+    private final long _defaultRate;
+    private volatile RateProfile _profile;
+
+    /**
+     * Constructor.
+     *
+     * @param globalRate      The global bytes per second. 0 is unlimited.
+     * @param connectionRate  The per connection bytes per second. 0 is unlimited.
+     */
+    public BandwidthLimiter(long globalRate, long connectionRate) {
+        _global = new TokenBucket(globalRate);
+        _connection = new TokenBucket(connectionRate);
+        _defaultRate = globalRate;
+    }
+
+    private BandwidthLimiter(BandwidthLimiter parent, long connectionRate) {
+        _global = parent._global;
+        _connection = new TokenBucket(connectionRate);
+        _defaultRate = parent._defaultRate;
+        _profile = parent._profile;
+    }
+
+    /**
+     * Create a limiter for a new connection that shares the global limit.
+     */
+    public BandwidthLimiter forConnection() {
+        return new BandwidthLimiter(this, _connection.getRate());
+    }
+
+    /**
+     * Set the time of day profile used to determine the global rate.
+     *
+     * @param profile  The profile or null to always use the default rate.
+     */
+    public void setProfile(RateProfile profile) {
+        _profile = profile;
+        refresh();
+    }
+
+    /**
+     * Update the global rate from the time of day profile.
+     */
+    public void refresh() {
+        RateProfile profile = _profile;
+        _global.setRate(profile != null
+                ? profile.getRate(_defaultRate)
+                : _defaultRate);
+    }
+
+    /**
+     * Determine if the limiter does not limit anything.
+     */
+    public boolean isUnlimited() {
+        return _global.isUnlimited() && _connection.isUnlimited();
+    }
+
+    /**
+     * Wrap an upload stream so that reads from it are rate limited.
+     *
+     * @param stream  The stream to wrap.
+     */
+    public InputStream wrap(InputStream stream) {
+        refresh();
+
+        if (isUnlimited())
+            return stream;
+
+        return new ThrottledInputStream(stream, _global, _connection);
+    }
+}
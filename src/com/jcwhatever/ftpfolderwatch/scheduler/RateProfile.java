@@ -0,0 +1,182 @@
+package com.jcwhatever.ftpfolderwatch.scheduler;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Time of day bandwidth profile.
+ *
+ * <p>A profile is a list of daily time windows, each with its own byte rate. Windows
+ * may wrap around midnight, and a window that ends when it starts (i.e. 00:00-24:00)
+ * covers the whole day. When no window matches the current time, the default rate
+ * is used.</p>
+ *
+ * <p>Profiles are parsed from strings in the format
+ * {@code HH:mm-HH:mm=rate[,HH:mm-HH:mm=rate...]} where rate is a number of bytes
+ * per second with an optional k, m or g suffix. A rate of 0 is unlimited.</p>
+ */
+public class RateProfile {
+
+    private final List<Window> _windows;
+
+    /**
+     * Parse a profile string.
+     *
+     * @param profile  The profile string.
+     *
+     * @throws IllegalArgumentException if the string is not a valid profile.
+     */
+    public static RateProfile parse(String profile) {
+
+        List<Window> windows = new ArrayList<>(4);
+
+        for (String rawWindow : profile.split(",")) {
+
+            rawWindow = rawWindow.trim();
+            if (rawWindow.isEmpty())
+                continue;
+
+            int equals = rawWindow.indexOf('=');
+            int dash = rawWindow.indexOf('-');
+            if (equals == -1 || dash == -1 || dash > equals)
+                throw new IllegalArgumentException("Invalid rate profile window: " + rawWindow);
+
+            int start = parseMinutes(rawWindow.substring(0, dash));
+            int end = parseMinutes(rawWindow.substring(dash + 1, equals));
+            long rate = parseRate(rawWindow.substring(equals + 1));
+
+            windows.add(new Window(start, end, rate));
+        }
+
+        return new RateProfile(windows);
+    }
+
+    /**
+     * Parse a rate string such as "512k" into bytes per second.
+     *
+     * @param rate  The rate string.
+     *
+     * @throws IllegalArgumentException if the string is not a valid rate.
+     */
+    public static long parseRate(String rate) {
+
+        rate = rate.trim().toLowerCase();
+        if (rate.isEmpty())
+            throw new IllegalArgumentException("Rate is empty.");
+
+        long multiplier = 1;
+        char suffix = rate.charAt(rate.length() - 1);
+
+        switch (suffix) {
+            case 'k':
+                multiplier = 1024L;
+                break;
+            case 'm':
+                multiplier = 1024L * 1024L;
+                break;
+            case 'g':
+                multiplier = 1024L * 1024L * 1024L;
+                break;
+        }
+
+        if (multiplier != 1)
+            rate = rate.substring(0, rate.length() - 1);
+
+        try {
+            return Long.parseLong(rate) * multiplier;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid rate: " + rate);
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param windows  The profile time windows.
+     */
+    public RateProfile(List<Window> windows) {
+        _windows = new ArrayList<>(windows);
+    }
+
+    /**
+     * Get the rate for the current time of day.
+     *
+     * @param defaultRate  The rate to return if no window matches.
+     */
+    public long getRate(long defaultRate) {
+        Calendar calendar = Calendar.getInstance();
+        int minutes = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+        return getRate(minutes, defaultRate);
+    }
+
+    /**
+     * Get the rate for the specified minute of the day.
+     *
+     * @param minuteOfDay  The minute of the day. (0-1439)
+     * @param defaultRate  The rate to return if no window matches.
+     */
+    public long getRate(int minuteOfDay, long defaultRate) {
+
+        for (Window window : _windows) {
+            if (window.contains(minuteOfDay))
+                return window.rate;
+        }
+        return defaultRate;
+    }
+
+    private static int parseMinutes(String time) {
+
+        String[] components = time.trim().split(":");
+        if (components.length != 2)
+            throw new IllegalArgumentException("Invalid time of day: " + time);
+
+        try {
+            int hours = Integer.parseInt(components[0]);
+            int minutes = Integer.parseInt(components[1]);
+
+            if (hours < 0 || hours > 24 || minutes < 0 || minutes > 59 || (hours == 24 && minutes != 0))
+                throw new IllegalArgumentException("Invalid time of day: " + time);
+
+            return (hours * 60 + minutes) % (24 * 60);
+
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time of day: " + time);
+        }
+    }
+
+    /**
+     * A daily time window with a byte rate.
+     */
+    public static class Window {
+
+        final int start;
+        final int end;
+        final long rate;
+
+        /**
+         * Constructor.
+         *
+         * @param start  The start minute of the day. (inclusive)
+         * @param end    The end minute of the day. (exclusive) The same as the start
+         *               for the whole day.
+         * @param rate   The bytes per second during the window. 0 is unlimited.
+         */
+        public Window(int start, int end, long rate) {
+            this.start = start;
+            this.end = end;
+            this.rate = rate;
+        }
+
+        boolean contains(int minute) {
+            if (start == end)
+                return true;
+
+            if (start < end)
+                return minute >= start && minute < end;
+
+            // wraps around midnight
+            return minute >= start || minute < end;
+        }
+    }
+}
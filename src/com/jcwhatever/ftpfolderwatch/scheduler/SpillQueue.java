@@ -0,0 +1,341 @@
+package com.jcwhatever.ftpfolderwatch.scheduler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A first in, first out queue of mirror operations stored in a file so that
+ * the number of queued operations does not affect memory use.
+ *
+ * <p>Operations are appended to the end of the file and read from the front. The
+ * file is truncated each time the queue becomes empty.</p>
+ *
+ * <p>A durable queue resumes the operations left in an existing file and, when closed,
+ * rewrites the file with the operations that were not removed so they are sent after a
+ * restart. Operations added shortly before the process ends without closing the queue
+ * may be lost and operations already removed may be sent again. A queue that is not
+ * durable replaces an existing file and deletes it when closed.</p>
+ */
+public class SpillQueue {
+
+    private final File _file;
+    private final boolean _isDurable;
+
+    private DataOutputStream _output;
+    private DataInputStream _input;
+    private TransferTask _head;
+    private long _size;
+    private boolean _isFlushed = true;
+    private boolean _isClosed;
+
+    /**
+     * Constructor.
+     *
+     * @param file       The file to store queued operations in.
+     * @param isDurable  True to resume the operations in an existing file and keep the
+     *                   operations that are not removed when closed.
+     *
+     * @throws IOException
+     */
+    public SpillQueue(File file, boolean isDurable) throws IOException {
+        _file = file;
+        _isDurable = isDurable;
+
+        if (isDurable && file.length() > 0) {
+            resume();
+        }
+        else {
+            reset();
+        }
+    }
+
+    /**
+     * Get the file operations are stored in.
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Determine if operations that are not removed are kept when closed.
+     */
+    public boolean isDurable() {
+        return _isDurable;
+    }
+
+    /**
+     * Get the number of queued operations.
+     */
+    public synchronized long size() {
+        return _size;
+    }
+
+    /**
+     * Add an operation to the end of the queue.
+     *
+     * @param task  The operation.
+     *
+     * @throws IOException
+     */
+    public synchronized void add(TransferTask task) throws IOException {
+
+        if (_isClosed)
+            throw new IOException("Spill queue is closed.");
+
+        write(_output, task);
+
+        _size++;
+        _isFlushed = false;
+    }
+
+    /**
+     * Return an operation removed by {@link #poll} to the front of the queue,
+     * i.e. after it could not be sent. Only one operation can be returned
+     * before the next call to {@link #poll}.
+     *
+     * @param task  The operation.
+     *
+     * @throws IllegalStateException if an operation was already returned.
+     */
+    public synchronized void pushFront(TransferTask task) {
+
+        if (_head != null)
+            throw new IllegalStateException("An operation was already returned to the queue.");
+
+        _head = task;
+        _size++;
+    }
+
+    /**
+     * Remove the operation at the front of the queue.
+     *
+     * @return  The operation or null if the queue is empty.
+     *
+     * @throws IOException
+     */
+    public synchronized TransferTask poll() throws IOException {
+
+        if (_size == 0 || _isClosed)
+            return null;
+
+        TransferTask task;
+
+        if (_head != null) {
+            task = _head;
+            _head = null;
+        }
+        else {
+            // make buffered operations readable
+            if (!_isFlushed) {
+                _output.flush();
+                _isFlushed = true;
+            }
+
+            task = read(_input);
+        }
+
+        _size--;
+
+        if (_size == 0)
+            reset();
+
+        return task;
+    }
+
+    /**
+     * Discard queued operations.
+     *
+     * @throws IOException
+     */
+    public synchronized void clear() throws IOException {
+        _size = 0;
+        _head = null;
+        reset();
+    }
+
+    /**
+     * Close the queue. A durable queue keeps the operations that were not removed,
+     * otherwise they are discarded and the file is deleted.
+     */
+    public synchronized void close() {
+
+        if (_isClosed)
+            return;
+
+        _isClosed = true;
+
+        if (_isDurable && _size > 0) {
+            try {
+                compact();
+            }
+            catch (IOException e) {
+                // the file still has every operation, including the ones removed.
+                closeStreams();
+                System.err.println("Failed to compact spill file, spilled operations that were " +
+                        "already sent will be sent again: " + e.getMessage());
+            }
+            return;
+        }
+
+        closeStreams();
+        _size = 0;
+        _head = null;
+
+        if (!_file.delete() && _file.exists())
+            System.err.println("Failed to delete spill file: " + _file);
+    }
+
+    /**
+     * Rewrite the file with the operations that were not removed.
+     */
+    private void compact() throws IOException {
+
+        File temp = new File(_file.getPath() + ".tmp");
+        boolean isWritten = false;
+
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024))) {
+
+            if (_head != null)
+                write(output, _head);
+
+            _output.flush();
+
+            long remaining = _head != null ? _size - 1 : _size;
+            for (long i = 0; i < remaining; i++) {
+                write(output, read(_input));
+            }
+
+            isWritten = true;
+        }
+        finally {
+            if (!isWritten && !temp.delete() && temp.exists())
+                System.err.println("Failed to delete " + temp);
+        }
+
+        closeStreams();
+        Files.move(temp.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Count the operations in an existing file and open it for appending and reading.
+     */
+    private void resume() throws IOException {
+
+        long valid = 0;
+
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(_file), 64 * 1024))) {
+
+            while (true) {
+                int length = skip(input);
+                if (length < 0)
+                    break;
+
+                valid += length;
+                _size++;
+            }
+        }
+
+        // an incomplete operation written when the process ended.
+        if (valid < _file.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(_file, "rw")) {
+                raf.setLength(valid);
+            }
+        }
+
+        _output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_file, true), 64 * 1024));
+        _input = new DataInputStream(new BufferedInputStream(new FileInputStream(_file), 64 * 1024));
+        _isFlushed = true;
+
+        if (_size > 0)
+            System.out.println("Resuming " + _size + " spilled operations from " + _file + '.');
+    }
+
+    /**
+     * Truncate the file and open it for writing and reading.
+     */
+    private void reset() throws IOException {
+
+        closeStreams();
+
+        _output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_file), 64 * 1024));
+        _input = new DataInputStream(new BufferedInputStream(new FileInputStream(_file), 64 * 1024));
+        _isFlushed = true;
+    }
+
+    private void closeStreams() {
+
+        try {
+            if (_output != null)
+                _output.close();
+
+            if (_input != null)
+                _input.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        _output = null;
+        _input = null;
+    }
+
+    private static void write(DataOutputStream output, TransferTask task) throws IOException {
+        output.writeByte(task.getType().ordinal());
+        output.writeUTF(task.getFile() != null ? task.getFile().getPath() : "");
+        output.writeUTF(task.getName());
+        output.writeUTF(task.getRemotePath());
+    }
+
+    private static TransferTask read(DataInputStream input) throws IOException {
+
+        TransferTask.Type type = TransferTask.Type.values()[input.readByte()];
+        String localPath = input.readUTF();
+        String name = input.readUTF();
+        String remotePath = input.readUTF();
+
+        return type == TransferTask.Type.UPLOAD
+                ? TransferTask.upload(new File(localPath), remotePath)
+                : TransferTask.delete(name, remotePath);
+    }
+
+    /**
+     * Skip one operation.
+     *
+     * @return  The number of bytes skipped or -1 if there is no complete operation.
+     */
+    private static int skip(DataInputStream input) throws IOException {
+
+        int type = input.read();
+        if (type < 0 || type >= TransferTask.Type.values().length)
+            return -1;
+
+        int length = 1;
+
+        try {
+            for (int i = 0; i < 3; i++) {
+                int size = input.readUnsignedShort();
+                if (input.skipBytes(size) != size)
+                    return -1;
+
+                length += 2 + size;
+            }
+        }
+        catch (EOFException e) {
+            return -1;
+        }
+
+        return length;
+    }
+}
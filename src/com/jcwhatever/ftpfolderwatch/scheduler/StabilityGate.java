@@ -0,0 +1,257 @@
+package com.jcwhatever.ftpfolderwatch.scheduler;
+
+import com.jcwhatever.ftpfolderwatch.ftp.IFtpMirror;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds file uploads until the file is no longer being written and then
+ * sends them to an {@link IFtpMirror}.
+ *
+ * <p>Pending files are checked on an interval. A file is released once its size and
+ * last modified time are unchanged for a number of consecutive checks and, optionally,
+ * a shared lock can be acquired on it. Further uploads of a pending file are merged
+ * into the pending upload, so a large copy is uploaded once. Each file is tracked
+ * independently so a file that is still being written does not hold up others.</p>
+ *
+ * <p>Folder uploads and deletes are not held.</p>
+ */
+public class StabilityGate implements IFtpMirror {
+
+    private final IFtpMirror _mirror;
+    private final int _requiredChecks;
+    private final boolean _isLockChecked;
+    private final Map<String, Pending> _pending = new LinkedHashMap<>(10);
+    private final ScheduledExecutorService _executor;
+
+    /**
+     * Constructor.
+     *
+     * @param mirror          The mirror to send stable uploads to.
+     * @param interval        The number of milliseconds between checks.
+     * @param requiredChecks  The number of consecutive checks a file must be unchanged.
+     * @param isLockChecked   True to require a shared lock on the file before it is released.
+     */
+    public StabilityGate(IFtpMirror mirror, long interval, int requiredChecks, boolean isLockChecked) {
+        _mirror = mirror;
+        _requiredChecks = Math.max(1, requiredChecks);
+        _isLockChecked = isLockChecked;
+
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "StabilityGate");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        _executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the number of uploads waiting for their file to be stable.
+     */
+    public int size() {
+        synchronized (_pending) {
+            return _pending.size();
+        }
+    }
+
+    /**
+     * Release all pending uploads without waiting for their files to be stable.
+     */
+    public void flush() {
+
+        List<Pending> released;
+
+        synchronized (_pending) {
+            released = new ArrayList<>(_pending.values());
+            _pending.clear();
+        }
+
+        for (Pending pending : released) {
+            release(pending);
+        }
+    }
+
+    /**
+     * Stop checking pending uploads. Pending uploads are discarded.
+     */
+    public void dispose() {
+        _executor.shutdownNow();
+    }
+
+    @Override
+    public void upload(File file, String remotePath) throws IOException {
+
+        if (file.isDirectory()) {
+            _mirror.upload(file, remotePath);
+            return;
+        }
+
+        String key = getKey(file.getName(), remotePath);
+
+        synchronized (_pending) {
+            Pending pending = _pending.get(key);
+            if (pending == null) {
+                _pending.put(key, new Pending(key, file, remotePath));
+            }
+            else {
+                // file changed again, start over.
+                pending.checks = 0;
+            }
+        }
+    }
+
+    @Override
+    public void delete(String name, String remotePath) throws IOException {
+
+        synchronized (_pending) {
+            _pending.remove(getKey(name, remotePath));
+        }
+
+        _mirror.delete(name, remotePath);
+    }
+
+    /**
+     * Check pending files and release the stable ones.
+     */
+    private void check() {
+
+        List<Pending> pendingList;
+
+        synchronized (_pending) {
+            if (_pending.isEmpty())
+                return;
+
+            pendingList = new ArrayList<>(_pending.values());
+        }
+
+        List<Pending> released = new ArrayList<>(10);
+
+        for (Pending pending : pendingList) {
+
+            File file = pending.file;
+            long size = file.length();
+            long modified = file.lastModified();
+
+            synchronized (_pending) {
+
+                // removed or replaced while checking
+                if (_pending.get(pending.key) != pending)
+                    continue;
+
+                if (modified == 0) {
+                    // file no longer exists, delete is reported separately.
+                    _pending.remove(pending.key);
+                    continue;
+                }
+
+                if (size != pending.size || modified != pending.modified) {
+                    pending.size = size;
+                    pending.modified = modified;
+                    pending.checks = 0;
+                    continue;
+                }
+
+                pending.checks++;
+
+                if (pending.checks < _requiredChecks)
+                    continue;
+            }
+
+            boolean isLocked = _isLockChecked && !canLock(file);
+
+            synchronized (_pending) {
+
+                // changed again while checking the lock
+                if (_pending.get(pending.key) != pending || pending.checks < _requiredChecks)
+                    continue;
+
+                if (isLocked) {
+                    pending.checks = 0;
+                    continue;
+                }
+
+                _pending.remove(pending.key);
+                released.add(pending);
+            }
+        }
+
+        for (Pending pending : released) {
+            release(pending);
+        }
+    }
+
+    /**
+     * Send a pending upload to the mirror.
+     */
+    private void release(Pending pending) {
+        try {
+            _mirror.upload(pending.file, pending.remotePath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Determine if a shared lock can be acquired on a file, indicating
+     * no other process is writing to it.
+     */
+    private static boolean canLock(File file) {
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            FileLock lock = channel.tryLock(0, Long.MAX_VALUE, true);
+            if (lock == null)
+                return false;
+
+            lock.release();
+            return true;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String getKey(String name, String remotePath) {
+        return remotePath + '/' + name;
+    }
+
+    /**
+     * A pending upload.
+     */
+    private static class Pending {
+
+        final String key;
+        final File file;
+        final String remotePath;
+
+        long size = -1;
+        long modified = -1;
+        int checks;
+
+        Pending(String key, File file, String remotePath) {
+            this.key = key;
+            this.file = file;
+            this.remotePath = remotePath;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.jcwhatever.ftpfolderwatch.scheduler;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * An {@code InputStream} that limits the rate data can be read from
+ * the wrapped stream using one or more {@link TokenBucket}'s.
+ *
+ * <p>Permits are acquired once per read call for the number of bytes actually read.</p>
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+    private final TokenBucket[] _buckets;
+
+    /**
+     * Constructor.
+     *
+     * @param stream   The stream to throttle.
+     * @param buckets  The buckets to acquire permits from.
+     */
+    public ThrottledInputStream(InputStream stream, TokenBucket... buckets) {
+        super(stream);
+        _buckets = buckets;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1)
+            throttle(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0)
+            throttle(read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0)
+            throttle(skipped);
+        return skipped;
+    }
+
+    private void throttle(long bytes) throws IOException {
+
+        long wait = 0;
+        for (TokenBucket bucket : _buckets) {
+            wait = Math.max(wait, bucket.reserve(bytes));
+        }
+
+        if (wait <= 0)
+            return;
+
+        try {
+            Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling transfer.");
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.jcwhatever.ftpfolderwatch.scheduler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free token bucket used to limit a rate (bytes or operations per second).
+ *
+ * <p>Implemented as a generic cell rate algorithm: instead of counting tokens, the
+ * bucket tracks the theoretical time at which the next token becomes available and
+ * advances it with a single compare-and-set per acquisition. Callers acquire
+ * permits in chunks (i.e. one read buffer) so there is no per-byte synchronization.</p>
+ */
+public class TokenBucket {
+
+    private final AtomicLong _nextFree = new AtomicLong(0);
+
+    private volatile long _rate;
+    private volatile double _nanosPerPermit;
+    private volatile long _burstNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param rate  The number of permits per second. 0 or less is unlimited.
+     */
+    public TokenBucket(long rate) {
+        setRate(rate);
+    }
+
+    /**
+     * Get the number of permits per second. 0 or less is unlimited.
+     */
+    public long getRate() {
+        return _rate;
+    }
+
+    /**
+     * Set the number of permits per second.
+     *
+     * <p>The bucket allows bursts of up to one second worth of permits.</p>
+     *
+     * @param rate  The number of permits per second. 0 or less is unlimited.
+     */
+    public void setRate(long rate) {
+        if (rate == _rate)
+            return;
+
+        _rate = rate;
+
+        if (rate <= 0) {
+            _nanosPerPermit = 0;
+            _burstNanos = 0;
+        }
+        else {
+            _nanosPerPermit = TimeUnit.SECONDS.toNanos(1) / (double)rate;
+            _burstNanos = TimeUnit.SECONDS.toNanos(1);
+        }
+    }
+
+    /**
+     * Determine if the bucket is unlimited.
+     */
+    public boolean isUnlimited() {
+        return _rate <= 0;
+    }
+
+    /**
+     * Acquire permits, blocking until they are available.
+     *
+     * @param permits  The number of permits to acquire.
+     *
+     * @throws InterruptedException
+     */
+    public void acquire(long permits) throws InterruptedException {
+        long wait = reserve(permits);
+        if (wait > 0)
+            TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    /**
+     * Reserve permits without blocking.
+     *
+     * @param permits  The number of permits to reserve.
+     *
+     * @return  The number of nanoseconds the caller must wait before using the permits.
+     */
+    public long reserve(long permits) {
+
+        double nanosPerPermit = _nanosPerPermit;
+        if (nanosPerPermit == 0 || permits <= 0)
+            return 0;
+
+        long cost = (long)(permits * nanosPerPermit);
+        long burst = _burstNanos;
+
+        while (true) {
+            long now = System.nanoTime();
+            long current = _nextFree.get();
+            long start = Math.max(current, now);
+            long next = start + cost;
+
+            if (_nextFree.compareAndSet(current, next))
+                return Math.max(0, next - burst - now);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.jcwhatever.ftpfolderwatch.scheduler;
+
+/**
+ * Transfer priority class.
+ */
+public enum TransferPriority {
+
+    /**
+     * Folders, deletes and small files.
+     */
+    HIGH   (4),
+
+    /**
+     * Recently changed files.
+     */
+    NORMAL (2),
+
+    /**
+     * Large files that have not changed recently. (backlog)
+     */
+    BULK   (1);
+
+    private final int _weight;
+
+    TransferPriority(int weight) {
+        _weight = weight;
+    }
+
+    /**
+     * Get the number of tasks of the priority class that are run per
+     * scheduling round when other classes are also waiting.
+     */
+    public int getWeight() {
+        return _weight;
+    }
+}
@@ -0,0 +1,750 @@
+package com.jcwhatever.ftpfolderwatch.scheduler;
+
+import com.jcwhatever.ftpfolderwatch.ftp.IFtpMirror;
+import com.jcwhatever.ftpfolderwatch.journal.Journal;
+import com.jcwhatever.ftpfolderwatch.retry.CircuitBreaker;
+import com.jcwhatever.ftpfolderwatch.retry.FailureClassifier;
+import com.jcwhatever.ftpfolderwatch.retry.RetryPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Queues mirror operations and sends them to an {@link IFtpMirror} from
+ * a worker thread.
+ *
+ * <p>Operations are assigned a {@link TransferPriority} so that folders, deletes, small
+ * files and recently changed files are sent ahead of large backlog files. Priority classes
+ * are served by weight so that lower classes still make progress. A newer operation on
+ * the same remote file replaces an older operation that has not started yet. A delete
+ * cancels queued operations inside the deleted folder, since deletes are sent ahead of
+ * uploads and an upload sent after the delete would create the folder again.</p>
+ *
+ * <p>The number of operations per second can be limited. Byte rate limiting is performed
+ * by the mirror using a {@link BandwidthLimiter}.</p>
+ *
+ * <p>Operations that fail with a transient error are queued again after a delay determined
+ * by the {@link RetryPolicy}. If a {@link CircuitBreaker} is set, connection failures are
+ * reported to it and the worker pauses while it is open.</p>
+ *
+ * <p>If a {@link Journal} is set, operations are recorded in it before they are queued
+ * and marked done once they complete, are superseded, or fail permanently. Submitting
+ * does not wait for the record to be synced; the worker waits for it before sending the
+ * operation, so records of a burst of changes are synced together.</p>
+ *
+ * <p>The worker can be paused without losing queued operations, and stopped after the
+ * operation in progress finishes.</p>
+ */
+public class TransferScheduler implements IFtpMirror {
+
+    private final IFtpMirror _mirror;
+    private final TokenBucket _opsLimit;
+    private final BandwidthLimiter _bandwidth;
+    private final Map<TransferPriority, ArrayDeque<TransferTask>> _queues =
+            new EnumMap<>(TransferPriority.class);
+    private final Map<String, TransferTask> _queued = new HashMap<>(10);
+    private final Map<String, Set<String>> _folders = new HashMap<>(10);
+    private final PriorityQueue<TransferTask> _delayed = new PriorityQueue<>(10,
+            new Comparator<TransferTask>() {
+                @Override
+                public int compare(TransferTask o1, TransferTask o2) {
+                    return Long.compare(o1.notBefore, o2.notBefore);
+                }
+            });
+    private final Object _sync = new Object();
+    private final Thread _workerThread;
+
+    private long _smallFileSize = 64 * 1024;
+    private long _recentMillis = 60 * 1000;
+    private int _size;
+    private TransferPriority _current = TransferPriority.HIGH;
+    private int _currentRuns;
+    private volatile RetryPolicy _retryPolicy = new RetryPolicy(1000, 5 * 60 * 1000, 10);
+    private volatile CircuitBreaker _breaker;
+    private volatile Journal _journal;
+    private TransferTask _inFlight;
+    private boolean _isPaused;
+
+    private volatile boolean _isRunning;
+
+    /**
+     * Constructor.
+     *
+     * @param mirror     The mirror to send operations to.
+     * @param opsLimit   The max number of operations per second. 0 is unlimited.
+     * @param bandwidth  The bandwidth limiter used by the mirror. Can be null.
+     */
+    public TransferScheduler(IFtpMirror mirror, long opsLimit, BandwidthLimiter bandwidth) {
+        _mirror = mirror;
+        _opsLimit = new TokenBucket(opsLimit);
+        _bandwidth = bandwidth;
+
+        for (TransferPriority priority : TransferPriority.values()) {
+            _queues.put(priority, new ArrayDeque<TransferTask>(10));
+        }
+
+        _isRunning = true;
+        _workerThread = new Thread(new Worker(), "TransferScheduler");
+        _workerThread.start();
+    }
+
+    /**
+     * Set the max size in bytes of files given high priority.
+     */
+    public void setSmallFileSize(long size) {
+        _smallFileSize = size;
+    }
+
+    /**
+     * Set the number of milliseconds since modification a file is considered
+     * recently changed and given normal priority instead of bulk priority.
+     */
+    public void setRecentMillis(long millis) {
+        _recentMillis = millis;
+    }
+
+    /**
+     * Set the policy used to retry operations that fail with a transient error.
+     */
+    public void setRetryPolicy(RetryPolicy policy) {
+        _retryPolicy = policy;
+    }
+
+    /**
+     * Set the circuit breaker used to pause transfers while the remote site is down.
+     *
+     * @param breaker  The circuit breaker or null to never pause.
+     */
+    public void setCircuitBreaker(CircuitBreaker breaker) {
+        _breaker = breaker;
+    }
+
+    /**
+     * Set the journal used to record pending operations.
+     *
+     * <p>Should be set before any operations are submitted.</p>
+     *
+     * @param journal  The journal or null to keep pending operations in memory only.
+     */
+    public void setJournal(Journal journal) {
+        _journal = journal;
+    }
+
+    /**
+     * Get the number of queued operations, including operations waiting to be retried.
+     */
+    public int size() {
+        synchronized (_sync) {
+            return _size;
+        }
+    }
+
+    /**
+     * Get the number of queued operations waiting to be retried after a failure.
+     */
+    public int getRetryCount() {
+        synchronized (_sync) {
+
+            int count = 0;
+            for (TransferTask task : _delayed) {
+                if (!task.isCancelled)
+                    count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Get the operation currently being sent to the mirror.
+     *
+     * @return  The task or null if the worker is idle.
+     */
+    public TransferTask getInFlight() {
+        synchronized (_sync) {
+            return _inFlight;
+        }
+    }
+
+    /**
+     * Get the creation time of the oldest operation that is queued or in progress.
+     *
+     * @return  The time in epoch milliseconds or 0 if there are no operations.
+     */
+    public long getOldestCreated() {
+        synchronized (_sync) {
+
+            long oldest = _inFlight != null ? _inFlight.getCreated() : Long.MAX_VALUE;
+
+            // retried tasks are queued behind newer tasks, so every task is checked.
+            for (ArrayDeque<TransferTask> queue : _queues.values()) {
+                for (TransferTask task : queue) {
+                    if (!task.isCancelled)
+                        oldest = Math.min(oldest, task.getCreated());
+                }
+            }
+
+            for (TransferTask task : _delayed) {
+                if (!task.isCancelled)
+                    oldest = Math.min(oldest, task.getCreated());
+            }
+
+            return oldest == Long.MAX_VALUE ? 0 : oldest;
+        }
+    }
+
+    /**
+     * Determine if the worker is paused.
+     */
+    public boolean isPaused() {
+        synchronized (_sync) {
+            return _isPaused;
+        }
+    }
+
+    /**
+     * Stop sending operations after the operation in progress finishes.
+     * New operations are still queued.
+     */
+    public void pause() {
+        synchronized (_sync) {
+            _isPaused = true;
+        }
+    }
+
+    /**
+     * Resume sending operations.
+     */
+    public void resume() {
+        synchronized (_sync) {
+            _isPaused = false;
+            _sync.notifyAll();
+        }
+    }
+
+    /**
+     * Make operations waiting to be retried due immediately.
+     */
+    public void retryNow() {
+        synchronized (_sync) {
+
+            List<TransferTask> delayed = new ArrayList<>(_delayed);
+            _delayed.clear();
+
+            for (TransferTask task : delayed) {
+                task.notBefore = 0;
+                _delayed.add(task);
+            }
+
+            _sync.notifyAll();
+        }
+    }
+
+    /**
+     * Wait until there are no queued operations and no operation is in progress.
+     *
+     * @param timeout  The max number of milliseconds to wait.
+     *
+     * @return  True if idle, false if the timeout elapsed.
+     *
+     * @throws InterruptedException
+     */
+    public boolean awaitIdle(long timeout) throws InterruptedException {
+
+        long end = System.currentTimeMillis() + timeout;
+
+        synchronized (_sync) {
+
+            while (_size > 0 || _inFlight != null) {
+
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0)
+                    return false;
+
+                _sync.wait(wait);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Wait until the number of queued operations is less than a limit.
+     *
+     * @param limit    The number of operations.
+     * @param timeout  The max number of milliseconds to wait.
+     *
+     * @return  True if below the limit, false if the timeout elapsed.
+     *
+     * @throws InterruptedException
+     */
+    public boolean awaitSizeBelow(int limit, long timeout) throws InterruptedException {
+
+        long end = System.currentTimeMillis() + timeout;
+
+        synchronized (_sync) {
+
+            while (_size >= limit) {
+
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0)
+                    return false;
+
+                _sync.wait(wait);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Stop the worker thread after the operation in progress finishes. Queued
+     * operations are not sent but remain in the journal if one is set.
+     *
+     * @param timeout  The max number of milliseconds to wait for the operation in
+     *                 progress before it is interrupted.
+     *
+     * @throws InterruptedException
+     */
+    public void shutdown(long timeout) throws InterruptedException {
+
+        synchronized (_sync) {
+            _isRunning = false;
+            _sync.notifyAll();
+        }
+
+        _workerThread.join(timeout);
+
+        if (_workerThread.isAlive()) {
+            System.err.println("Interrupting operation in progress: " + getInFlight());
+            _workerThread.interrupt();
+            _workerThread.join(timeout);
+        }
+    }
+
+    /**
+     * Stop the worker thread. Queued operations are discarded.
+     */
+    public void dispose() {
+        _isRunning = false;
+        _workerThread.interrupt();
+    }
+
+    @Override
+    public void upload(File file, String remotePath) {
+        submit(TransferTask.upload(file, remotePath));
+    }
+
+    @Override
+    public void delete(String name, String remotePath) {
+        submit(TransferTask.delete(name, remotePath));
+    }
+
+    /**
+     * Queue a task.
+     *
+     * @param task  The task to queue.
+     */
+    public void submit(TransferTask task) {
+
+        task.priority = getPriority(task);
+
+        Journal journal = _journal;
+        if (journal != null && task.journalId == 0) {
+            try {
+                task.journalId = journal.append(task);
+            } catch (IOException e) {
+                System.err.println("Failed to journal " + task + ": " + e.getMessage());
+            }
+        }
+
+        synchronized (_sync) {
+
+            if (task.getType() == TransferTask.Type.DELETE)
+                cancelContents(task);
+
+            TransferTask previous = _queued.put(task.getKey(), task);
+            if (previous != null && !previous.isCancelled) {
+                previous.isCancelled = true;
+                _size--;
+                complete(previous);
+            }
+
+            addFolderKey(task);
+
+            _queues.get(task.priority).addLast(task);
+            _size++;
+
+            // superseded tasks stay queued until polled, a file that keeps
+            // changing would otherwise fill the queues.
+            if (getQueueLength() > _size * 2 + 1024)
+                removeCancelled();
+
+            _sync.notifyAll();
+        }
+    }
+
+    /**
+     * Get the priority class of a task.
+     */
+    protected TransferPriority getPriority(TransferTask task) {
+
+        if (task.getType() == TransferTask.Type.DELETE)
+            return TransferPriority.HIGH;
+
+        File file = task.getFile();
+        if (!file.isFile() || file.length() <= _smallFileSize)
+            return TransferPriority.HIGH;
+
+        if (System.currentTimeMillis() - file.lastModified() <= _recentMillis)
+            return TransferPriority.NORMAL;
+
+        return TransferPriority.BULK;
+    }
+
+    /**
+     * Run a task.
+     *
+     * @throws IOException if the operation fails.
+     */
+    protected void run(TransferTask task) throws IOException {
+
+        switch (task.getType()) {
+            case UPLOAD:
+                _mirror.upload(task.getFile(), task.getRemotePath());
+                break;
+            case DELETE:
+                _mirror.delete(task.getName(), task.getRemotePath());
+                break;
+        }
+    }
+
+    /**
+     * Remove the next task from the queues and mark it in flight. Waits until
+     * a task is available and the worker is not paused.
+     *
+     * @return  The task or null if the scheduler is stopped.
+     *
+     * @throws InterruptedException
+     */
+    private TransferTask take() throws InterruptedException {
+
+        synchronized (_sync) {
+
+            while (_isRunning) {
+
+                if (_isPaused) {
+                    _sync.wait();
+                    continue;
+                }
+
+                long wait = releaseDelayed();
+
+                TransferTask task = poll();
+                if (task != null) {
+                    _inFlight = task;
+                    return task;
+                }
+
+                if (wait > 0) {
+                    _sync.wait(wait);
+                }
+                else {
+                    _sync.wait();
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Clear the in flight task.
+     */
+    private void finish() {
+        synchronized (_sync) {
+            _inFlight = null;
+            _sync.notifyAll();
+        }
+    }
+
+    /**
+     * Move delayed tasks that are due into the priority queues.
+     *
+     * @return  The number of milliseconds until the next delayed task is due or 0 if there are none.
+     */
+    private long releaseDelayed() {
+
+        long now = System.currentTimeMillis();
+        TransferTask task;
+
+        while ((task = _delayed.peek()) != null) {
+
+            if (task.notBefore > now)
+                return task.notBefore - now;
+
+            _delayed.poll();
+
+            if (!task.isCancelled)
+                _queues.get(task.priority).addLast(task);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Handle a failed task. Transient failures are retried after a delay.
+     */
+    private void onFailure(TransferTask task, IOException e) {
+
+        boolean isTransient = FailureClassifier.isTransient(e);
+
+        if (_breaker != null && FailureClassifier.isConnectionFailure(e))
+            _breaker.recordFailure();
+
+        if (!isTransient) {
+            System.err.println("Permanent failure, giving up on " + task + ": " + e.getMessage());
+            complete(task);
+            return;
+        }
+
+        if (!_retryPolicy.canRetry(task.attempts)) {
+            System.err.println("Giving up on " + task + " after " + task.attempts +
+                    " attempts: " + e.getMessage());
+            complete(task);
+            return;
+        }
+
+        long delay = _retryPolicy.getDelay(task.attempts);
+        System.err.println("Transient failure on " + task + ", retrying in " + delay + "ms: " +
+                e.getMessage());
+
+        synchronized (_sync) {
+
+            // a newer task for the same remote file supersedes the retry.
+            if (_queued.containsKey(task.getKey())) {
+                complete(task);
+                return;
+            }
+
+            task.notBefore = System.currentTimeMillis() + delay;
+            _queued.put(task.getKey(), task);
+            addFolderKey(task);
+            _delayed.add(task);
+            _size++;
+            _sync.notifyAll();
+        }
+    }
+
+    /**
+     * Mark a task done in the journal.
+     */
+    private void complete(TransferTask task) {
+        Journal journal = _journal;
+        if (journal != null)
+            journal.complete(task.journalId);
+    }
+
+    /**
+     * Cancel queued tasks inside the folder deleted by a task.
+     */
+    private void cancelContents(TransferTask delete) {
+
+        String path = delete.getRemotePath().isEmpty()
+                ? delete.getName()
+                : delete.getRemotePath() + File.separatorChar + delete.getName();
+
+        String prefix = path + File.separatorChar;
+
+        Iterator<Map.Entry<String, Set<String>>> iterator = _folders.entrySet().iterator();
+        while (iterator.hasNext()) {
+
+            Map.Entry<String, Set<String>> entry = iterator.next();
+            String folder = entry.getKey();
+
+            if (!folder.equals(path) && !folder.startsWith(prefix))
+                continue;
+
+            for (String key : entry.getValue()) {
+
+                TransferTask task = _queued.remove(key);
+                if (task == null || task.isCancelled)
+                    continue;
+
+                task.isCancelled = true;
+                _size--;
+                complete(task);
+            }
+
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Index the key of a queued task by its remote folder.
+     */
+    private void addFolderKey(TransferTask task) {
+
+        Set<String> keys = _folders.get(task.getRemotePath());
+        if (keys == null) {
+            keys = new HashSet<>(10);
+            _folders.put(task.getRemotePath(), keys);
+        }
+
+        keys.add(task.getKey());
+    }
+
+    /**
+     * Remove the key of a task that is no longer queued from the folder index.
+     */
+    private void removeFolderKey(TransferTask task) {
+
+        Set<String> keys = _folders.get(task.getRemotePath());
+        if (keys == null)
+            return;
+
+        keys.remove(task.getKey());
+
+        if (keys.isEmpty())
+            _folders.remove(task.getRemotePath());
+    }
+
+    /**
+     * Get the number of tasks in the queues, including superseded tasks.
+     */
+    private int getQueueLength() {
+
+        int length = _delayed.size();
+
+        for (ArrayDeque<TransferTask> queue : _queues.values()) {
+            length += queue.size();
+        }
+
+        return length;
+    }
+
+    /**
+     * Remove superseded tasks from the queues.
+     */
+    private void removeCancelled() {
+
+        // copied so the queues also release their capacity.
+        for (TransferPriority priority : TransferPriority.values()) {
+
+            ArrayDeque<TransferTask> active = new ArrayDeque<>(10);
+
+            for (TransferTask task : _queues.get(priority)) {
+                if (!task.isCancelled)
+                    active.addLast(task);
+            }
+
+            _queues.put(priority, active);
+        }
+
+        Iterator<TransferTask> iterator = _delayed.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isCancelled)
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Weighted round robin over the priority queues.
+     */
+    private TransferTask poll() {
+
+        TransferPriority[] priorities = TransferPriority.values();
+
+        for (int i = 0; i < priorities.length * 2; i++) {
+
+            ArrayDeque<TransferTask> queue = _queues.get(_current);
+
+            if (_currentRuns < _current.getWeight()) {
+
+                TransferTask task;
+                while ((task = queue.pollFirst()) != null) {
+                    if (task.isCancelled)
+                        continue;
+
+                    _queued.remove(task.getKey());
+                    removeFolderKey(task);
+                    _size--;
+                    _currentRuns++;
+                    return task;
+                }
+            }
+
+            _currentRuns = 0;
+            _current = priorities[(_current.ordinal() + 1) % priorities.length];
+        }
+
+        return null;
+    }
+
+    /**
+     * Worker thread.
+     */
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+
+            while (_isRunning) {
+
+                TransferTask task;
+                try {
+                    if (_breaker != null)
+                        _breaker.await();
+
+                    task = take();
+                    if (task == null)
+                        break;
+
+                    // the operation must not reach the mirror before its journal record.
+                    Journal journal = _journal;
+                    if (journal != null && task.journalId > 0)
+                        journal.awaitDurable(task.journalId);
+
+                    _opsLimit.acquire(1);
+                } catch (InterruptedException e) {
+                    finish();
+                    break;
+                }
+
+                if (_bandwidth != null)
+                    _bandwidth.refresh();
+
+                task.attempts++;
+
+                try {
+                    TransferScheduler.this.run(task);
+
+                    if (_breaker != null)
+                        _breaker.recordSuccess();
+
+                    complete(task);
+                }
+                catch (IOException e) {
+                    onFailure(task, e);
+                }
+                catch (RuntimeException e) {
+                    e.printStackTrace();
+                    complete(task);
+                }
+                finally {
+                    finish();
+                }
+            }
+        }
+    }
+}
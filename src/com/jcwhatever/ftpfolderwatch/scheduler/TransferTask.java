@@ -0,0 +1,146 @@
+package com.jcwhatever.ftpfolderwatch.scheduler;
+
+import java.io.File;
+
+/**
+ * A queued mirror operation.
+ */
+public class TransferTask {
+
+    /**
+     * Mirror operation type.
+     */
+    public enum Type {
+        UPLOAD,
+        DELETE
+    }
+
+    private final Type _type;
+    private final File _file;
+    private final String _name;
+    private final String _remotePath;
+    private final long _created;
+
+    TransferPriority priority;
+    boolean isCancelled;
+    int attempts;
+    long notBefore;
+    long journalId;
+
+    /**
+     * Create an upload task.
+     *
+     * @param file        The file or folder to upload.
+     * @param remotePath  The remote path to upload to.
+     */
+    public static TransferTask upload(File file, String remotePath) {
+        return new TransferTask(Type.UPLOAD, file, file.getName(), remotePath);
+    }
+
+    /**
+     * Create a delete task.
+     *
+     * @param name        The name of the file or folder to delete.
+     * @param remotePath  The remote path of the file or folder.
+     */
+    public static TransferTask delete(String name, String remotePath) {
+        return new TransferTask(Type.DELETE, null, name, remotePath);
+    }
+
+    /**
+     * Restore a task from a journal record.
+     *
+     * @param journalId   The journal id of the task.
+     * @param type        The operation type.
+     * @param localPath   The path of the local file to upload. Ignored if the task is a delete.
+     * @param name        The name of the file or folder.
+     * @param remotePath  The remote path of the file or folder.
+     */
+    public static TransferTask fromJournal(long journalId, Type type, String localPath,
+                                           String name, String remotePath) {
+
+        TransferTask task = new TransferTask(type,
+                type == Type.UPLOAD ? new File(localPath) : null, name, remotePath);
+
+        task.journalId = journalId;
+        return task;
+    }
+
+    private TransferTask(Type type, File file, String name, String remotePath) {
+        _type = type;
+        _file = file;
+        _name = name;
+        _remotePath = remotePath;
+        _created = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the operation type.
+     */
+    public Type getType() {
+        return _type;
+    }
+
+    /**
+     * Get the local file to upload. Null if the task is a delete.
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Get the name of the file or folder.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Get the remote path of the file or folder.
+     */
+    public String getRemotePath() {
+        return _remotePath;
+    }
+
+    /**
+     * Get the time the task was created in epoch milliseconds.
+     */
+    public long getCreated() {
+        return _created;
+    }
+
+    /**
+     * Get the priority class assigned by the scheduler.
+     */
+    public TransferPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Get the number of times the task has been attempted.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Get the id of the task in the journal. 0 if the task is not journaled.
+     */
+    public long getJournalId() {
+        return journalId;
+    }
+
+    /**
+     * Get the key that identifies the remote file or folder the task operates on.
+     *
+     * <p>A newer task with the same key supersedes an older queued task.</p>
+     */
+    public String getKey() {
+        return _remotePath + '/' + _name;
+    }
+
+    @Override
+    public String toString() {
+        return _type + " '" + _name + "' at '" + _remotePath + '\'';
+    }
+}
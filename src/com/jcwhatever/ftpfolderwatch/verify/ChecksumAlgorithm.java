@@ -0,0 +1,80 @@
+package com.jcwhatever.ftpfolderwatch.verify;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Checksum algorithms that can be computed by both an FTP server and locally.
+ */
+public enum ChecksumAlgorithm {
+
+    CRC32   ("CRC32",   "XCRC",    8),
+    MD5     ("MD5",     "XMD5",    32),
+    SHA1    ("SHA-1",   "XSHA1",   40),
+    SHA256  ("SHA-256", "XSHA256", 64),
+    SHA512  ("SHA-512", "XSHA512", 128);
+
+    private final String _hashName;
+    private final String _command;
+    private final int _hexLength;
+
+    ChecksumAlgorithm(String hashName, String command, int hexLength) {
+        _hashName = hashName;
+        _command = command;
+        _hexLength = hexLength;
+    }
+
+    /**
+     * Get the name of the algorithm used by the HASH command.
+     */
+    public String getHashName() {
+        return _hashName;
+    }
+
+    /**
+     * Get the name of the legacy command that returns a checksum using the algorithm.
+     */
+    public String getCommand() {
+        return _command;
+    }
+
+    /**
+     * Get the number of hex characters in a checksum.
+     */
+    public int getHexLength() {
+        return _hexLength;
+    }
+
+    /**
+     * Create a new digest that computes a checksum using the algorithm.
+     */
+    public MessageDigest newDigest() {
+
+        if (this == CRC32)
+            return new Crc32Digest();
+
+        try {
+            return MessageDigest.getInstance(_hashName);
+        } catch (NoSuchAlgorithmException e) {
+            // all algorithms are required by the Java platform.
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Get the algorithm with a HASH command name.
+     *
+     * @param hashName  The name. Not case sensitive.
+     *
+     * @return  The algorithm or null if not found.
+     */
+    public static ChecksumAlgorithm fromHashName(String hashName) {
+
+        for (ChecksumAlgorithm algorithm : values()) {
+            if (algorithm._hashName.equalsIgnoreCase(hashName))
+                return algorithm;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,255 @@
+package com.jcwhatever.ftpfolderwatch.verify;
+
+import com.jcwhatever.ftpfolderwatch.filter.IPathFilter;
+import com.jcwhatever.ftpfolderwatch.ftp.FtpReplyException;
+import com.jcwhatever.ftpfolderwatch.ftp.IFtpConnection;
+import com.jcwhatever.ftpfolderwatch.ftp.IFtpHandler;
+import com.jcwhatever.ftpfolderwatch.ftp.IFtpMirror;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically compares the checksums of all mirrored files on the server with
+ * the local files and uploads files that differ or are missing.
+ *
+ * <p>Uses its own connection so audits do not hold up transfers. Files changed
+ * recently are skipped since their uploads may still be pending.</p>
+ *
+ * <p>A folder missing on the server is uploaded along with its files. Its sub
+ * folders are found missing when they are audited.</p>
+ */
+public class ChecksumAuditor {
+
+    private final File _folder;
+    private final Path _path;
+    private final IPathFilter _filter;
+    private final IFtpConnection _connection;
+    private final String _rootFolder;
+    private final ChecksumVerifier _verifier;
+    private final IFtpMirror _mirror;
+    private final ScheduledExecutorService _executor;
+
+    private long _recentMillis = 10 * 60 * 1000;
+
+    private volatile boolean _isRunning = true;
+
+    /**
+     * Constructor.
+     *
+     * @param folder        The local folder.
+     * @param filter        The filter of files that are not mirrored.
+     * @param connection    A connection to the mirror site not used by anything else.
+     * @param remoteFolder  The remote folder the local folder is mirrored to.
+     * @param verifier      The checksum verifier.
+     * @param mirror        The mirror used to upload files that differ.
+     * @param interval      The number of milliseconds between audits.
+     */
+    public ChecksumAuditor(File folder, IPathFilter filter, IFtpConnection connection,
+                           String remoteFolder, ChecksumVerifier verifier, IFtpMirror mirror,
+                           long interval) {
+        _folder = folder;
+        _path = folder.toPath();
+        _filter = filter;
+        _connection = connection;
+        _rootFolder = remoteFolder;
+        _verifier = verifier;
+        _mirror = mirror;
+
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ChecksumAuditor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        _executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                audit();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set the number of milliseconds since modification a file is skipped. Default is 10 minutes.
+     */
+    public void setRecentMillis(long millis) {
+        _recentMillis = millis;
+    }
+
+    /**
+     * Stop auditing.
+     */
+    public void dispose() {
+        _isRunning = false;
+        _executor.shutdownNow();
+    }
+
+    /**
+     * Audit all files.
+     */
+    private void audit() {
+
+        System.out.println("Audit started.");
+
+        Result result = new Result();
+        ArrayDeque<File> folders = new ArrayDeque<>(10);
+        folders.add(_folder);
+
+        try {
+            File folder;
+            while (_isRunning && (folder = folders.pollFirst()) != null) {
+
+                if (!auditFolder(folder, folders, result))
+                    return;
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Audit failed: " + e.getMessage());
+            return;
+        }
+        catch (RuntimeException e) {
+            // the next audit is not run if the exception is thrown.
+            e.printStackTrace();
+            return;
+        }
+
+        System.out.println("Audit finished. Checked " + result.checked + " files, uploaded " +
+                result.uploaded + '.');
+    }
+
+    /**
+     * Audit the files in a folder and add its sub folders to the folder queue.
+     *
+     * @return  False if the server can't compute checksums.
+     */
+    private boolean auditFolder(final File folder, ArrayDeque<File> folders,
+                                final Result result) throws IOException {
+
+        File[] files = folder.listFiles();
+        if (files == null)
+            return true;
+
+        final String remotePath = _path.relativize(folder.toPath()).toString();
+        final String path = Paths.get(_rootFolder, remotePath).toString().replace("\\", "/");
+        final long recent = System.currentTimeMillis() - _recentMillis;
+        final boolean[] isSupported = new boolean[] { true };
+
+        for (File file : files) {
+            if (file.isDirectory() && !_filter.isExcluded(file, true))
+                folders.addLast(file);
+        }
+
+        final File[] auditFiles = files;
+
+        _connection.connect(new IFtpHandler() {
+            @Override
+            public void handle(FTPClient ftp) throws IOException {
+
+                ChecksumAlgorithm algorithm = _verifier.getAlgorithm(ftp);
+                if (algorithm == null) {
+                    isSupported[0] = false;
+                    return;
+                }
+
+                if (!ftp.changeWorkingDirectory(path.isEmpty() ? "/" : path)) {
+
+                    if (ftp.getReplyCode() != FTPReply.FILE_UNAVAILABLE) {
+                        throw new FtpReplyException("Failed to change working directory to: " + path,
+                                ftp.getReplyCode(), ftp.getReplyString());
+                    }
+
+                    uploadMissing(folder, remotePath, auditFiles, recent, result);
+                    return;
+                }
+
+                for (File file : auditFiles) {
+
+                    if (!_isRunning)
+                        return;
+
+                    if (!file.isFile() || file.lastModified() > recent || _filter.isExcluded(file, false))
+                        continue;
+
+                    String remote;
+                    try {
+                        remote = _verifier.getRemoteChecksum(ftp, file.getName(), algorithm);
+                    }
+                    catch (FtpReplyException e) {
+                        if (e.getReplyCode() != FTPReply.FILE_UNAVAILABLE)
+                            throw e;
+
+                        remote = "";
+                    }
+
+                    if (remote == null) {
+                        isSupported[0] = false;
+                        return;
+                    }
+
+                    result.checked++;
+
+                    byte[] local = _verifier.getLocalChecksum(file, algorithm);
+                    if (ChecksumVerifier.isMatch(ChecksumVerifier.toHex(local), remote, algorithm))
+                        continue;
+
+                    System.out.println("Audit found " + (remote.isEmpty() ? "missing" : "changed") +
+                            " file: " + file);
+
+                    _mirror.upload(file, remotePath);
+                    result.uploaded++;
+                }
+            }
+        });
+
+        return isSupported[0];
+    }
+
+    /**
+     * Upload a folder missing on the server and the files in it.
+     */
+    private void uploadMissing(File folder, String remotePath, File[] files,
+                               long recent, Result result) throws IOException {
+
+        System.out.println("Audit found missing folder: " + folder);
+
+        if (!remotePath.isEmpty()) {
+            Path parent = _path.relativize(folder.toPath()).getParent();
+            _mirror.upload(folder, parent != null ? parent.toString() : "");
+            result.uploaded++;
+        }
+
+        for (File file : files) {
+
+            if (!_isRunning)
+                return;
+
+            if (!file.isFile() || file.lastModified() > recent || _filter.isExcluded(file, false))
+                continue;
+
+            _mirror.upload(file, remotePath);
+            result.uploaded++;
+        }
+    }
+
+    /**
+     * Audit totals.
+     */
+    private static class Result {
+        int checked;
+        int uploaded;
+    }
+}
@@ -0,0 +1,23 @@
+package com.jcwhatever.ftpfolderwatch.verify;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the checksum of a file on the server does not match
+ * the checksum of the local file.
+ */
+public class ChecksumMismatchException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param filename  The name of the file.
+     * @param local     The local checksum.
+     * @param remote    The remote checksum.
+     */
+    public ChecksumMismatchException(String filename, String local, String remote) {
+        super("Checksum mismatch for " + filename + ". Local: " + local + ", remote: " + remote);
+    }
+}
@@ -0,0 +1,294 @@
+package com.jcwhatever.ftpfolderwatch.verify;
+
+import com.jcwhatever.ftpfolderwatch.ftp.FtpReplyException;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Compares checksums of remote files computed by the FTP server with
+ * checksums of local files.
+ *
+ * <p>The server checksum command is chosen from the FEAT reply the first time it
+ * is needed. The HASH command is used with the server's current algorithm if
+ * advertised, otherwise one of the XCRC, XMD5, XSHA1, XSHA256 or XSHA512 commands.
+ * If the server supports none of them, verification is skipped.</p>
+ */
+public class ChecksumVerifier {
+
+    // legacy commands in order of preference. Cheapest first, since the checksum
+    // is used to detect damaged transfers rather than tampering.
+    private static final ChecksumAlgorithm[] COMMAND_PREFERENCE = new ChecksumAlgorithm[] {
+            ChecksumAlgorithm.CRC32,
+            ChecksumAlgorithm.MD5,
+            ChecksumAlgorithm.SHA1,
+            ChecksumAlgorithm.SHA256,
+            ChecksumAlgorithm.SHA512
+    };
+
+    private final Object _sync = new Object();
+
+    private boolean _isDetected;
+    private boolean _isHashCommand;
+    private ChecksumAlgorithm _algorithm;
+
+    /**
+     * Get the algorithm the server uses to compute checksums.
+     *
+     * @param ftp  A connected client.
+     *
+     * @return  The algorithm or null if the server can't compute checksums.
+     *
+     * @throws IOException
+     */
+    public ChecksumAlgorithm getAlgorithm(FTPClient ftp) throws IOException {
+
+        synchronized (_sync) {
+
+            if (!_isDetected) {
+                detect(ftp);
+                _isDetected = true;
+            }
+
+            return _algorithm;
+        }
+    }
+
+    /**
+     * Compute the checksum of a local file.
+     *
+     * @param file       The file.
+     * @param algorithm  The algorithm to use.
+     *
+     * @return  The checksum.
+     *
+     * @throws IOException
+     */
+    public byte[] getLocalChecksum(File file, ChecksumAlgorithm algorithm) throws IOException {
+
+        MessageDigest digest = algorithm.newDigest();
+        byte[] buffer = new byte[64 * 1024];
+
+        try (InputStream stream = new FileInputStream(file)) {
+
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        return digest.digest();
+    }
+
+    /**
+     * Get the checksum of a file in the current working directory from the server.
+     *
+     * @param ftp        A connected client.
+     * @param filename   The name of the file.
+     * @param algorithm  The algorithm returned by {@link #getAlgorithm}.
+     *
+     * @return  The checksum as lower case hex or null if the server refused the command.
+     *
+     * @throws FtpReplyException if the server can't compute the checksum of the file.
+     * @throws IOException
+     */
+    public String getRemoteChecksum(FTPClient ftp, String filename,
+                                    ChecksumAlgorithm algorithm) throws IOException {
+
+        boolean isHashCommand;
+        synchronized (_sync) {
+            isHashCommand = _isHashCommand;
+        }
+
+        int reply = isHashCommand
+                ? ftp.sendCommand("HASH", filename)
+                : ftp.sendCommand(algorithm.getCommand(), filename);
+
+        // advertised but not implemented, stop asking.
+        if (reply == FTPReply.UNRECOGNIZED_COMMAND || reply == FTPReply.COMMAND_NOT_IMPLEMENTED ||
+                reply == FTPReply.COMMAND_NOT_IMPLEMENTED_FOR_PARAMETER) {
+
+            System.err.println("Server refused checksum command, verification disabled: " +
+                    ftp.getReplyString().trim());
+
+            synchronized (_sync) {
+                _algorithm = null;
+            }
+            return null;
+        }
+
+        if (!FTPReply.isPositiveCompletion(reply)) {
+            throw new FtpReplyException("Failed to get checksum of " + filename,
+                    reply, ftp.getReplyString());
+        }
+
+        String checksum = parseChecksum(ftp.getReplyString(), algorithm);
+        if (checksum == null) {
+            throw new FtpReplyException("Unrecognized checksum reply for " + filename,
+                    reply, ftp.getReplyString());
+        }
+
+        return checksum;
+    }
+
+    /**
+     * Verify a file in the current working directory matches a local checksum.
+     *
+     * @param ftp        A connected client.
+     * @param filename   The name of the remote file.
+     * @param algorithm  The algorithm returned by {@link #getAlgorithm}.
+     * @param local      The local checksum.
+     *
+     * @return  True if verified, false if the server refused to compute the checksum.
+     *
+     * @throws ChecksumMismatchException if the checksums do not match.
+     * @throws IOException
+     */
+    public boolean verify(FTPClient ftp, String filename, ChecksumAlgorithm algorithm,
+                          byte[] local) throws IOException {
+
+        String remote = getRemoteChecksum(ftp, filename, algorithm);
+        if (remote == null)
+            return false;
+
+        String localHex = toHex(local);
+
+        if (!isMatch(localHex, remote, algorithm))
+            throw new ChecksumMismatchException(filename, localHex, remote);
+
+        return true;
+    }
+
+    /**
+     * Determine if a local checksum matches a remote checksum.
+     */
+    public static boolean isMatch(String localHex, String remoteHex, ChecksumAlgorithm algorithm) {
+
+        // some servers drop the leading zeros of CRC values.
+        if (algorithm == ChecksumAlgorithm.CRC32)
+            return stripZeros(localHex).equals(stripZeros(remoteHex));
+
+        return localHex.equals(remoteHex);
+    }
+
+    /**
+     * Convert a checksum to lower case hex.
+     */
+    public static String toHex(byte[] checksum) {
+
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[checksum.length * 2];
+
+        for (int i = 0; i < checksum.length; i++) {
+            hex[i * 2] = digits[(checksum[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = digits[checksum[i] & 0xF];
+        }
+
+        return new String(hex);
+    }
+
+    /**
+     * Choose the checksum command and algorithm from the servers features.
+     */
+    private void detect(FTPClient ftp) throws IOException {
+
+        if (!ftp.features()) {
+            System.err.println("Server does not list features, verification disabled.");
+            return;
+        }
+
+        // HASH lists the supported algorithms separated by ';'
+        // with the current algorithm marked by '*'.
+        String hashValue = ftp.featureValue("HASH");
+        if (hashValue != null) {
+
+            for (String name : hashValue.split(";")) {
+
+                name = name.trim();
+                if (!name.endsWith("*"))
+                    continue;
+
+                ChecksumAlgorithm algorithm =
+                        ChecksumAlgorithm.fromHashName(name.substring(0, name.length() - 1));
+
+                if (algorithm != null) {
+                    _isHashCommand = true;
+                    _algorithm = algorithm;
+                    System.out.println("Using HASH " + algorithm.getHashName() + " checksums.");
+                    return;
+                }
+            }
+        }
+
+        for (ChecksumAlgorithm algorithm : COMMAND_PREFERENCE) {
+            if (ftp.hasFeature(algorithm.getCommand())) {
+                _algorithm = algorithm;
+                System.out.println("Using " + algorithm.getCommand() + " checksums.");
+                return;
+            }
+        }
+
+        System.err.println("Server does not support checksums, verification disabled.");
+    }
+
+    /**
+     * Find the checksum in a reply.
+     *
+     * <p>HASH replies are formatted as {@code 213 <algorithm> <range> <hash> <filename>}.
+     * Legacy command replies vary by server but contain the checksum as a hex token.</p>
+     *
+     * @return  The lower case checksum or null if not found.
+     */
+    private static String parseChecksum(String reply, ChecksumAlgorithm algorithm) {
+
+        String[] tokens = reply.trim().split("\\s+");
+        String shortHex = null;
+
+        // skip the reply code
+        for (int i = 1; i < tokens.length; i++) {
+
+            String token = tokens[i];
+            if (!isHex(token))
+                continue;
+
+            if (token.length() == algorithm.getHexLength())
+                return token.toLowerCase();
+
+            if (shortHex == null && token.length() < algorithm.getHexLength())
+                shortHex = token;
+        }
+
+        return algorithm == ChecksumAlgorithm.CRC32 && shortHex != null
+                ? shortHex.toLowerCase()
+                : null;
+    }
+
+    private static boolean isHex(String token) {
+
+        if (token.isEmpty())
+            return false;
+
+        for (int i = 0; i < token.length(); i++) {
+            if (Character.digit(token.charAt(i), 16) == -1)
+                return false;
+        }
+
+        return true;
+    }
+
+    private static String stripZeros(String hex) {
+
+        int i = 0;
+        while (i < hex.length() - 1 && hex.charAt(i) == '0') {
+            i++;
+        }
+
+        return hex.substring(i);
+    }
+}
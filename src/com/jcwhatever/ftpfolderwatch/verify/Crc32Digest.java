@@ -0,0 +1,51 @@
+package com.jcwhatever.ftpfolderwatch.verify;
+
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+/**
+ * CRC32 checksum as a {@code MessageDigest} so it can be computed the same way
+ * as the other {@link ChecksumAlgorithm}'s.
+ */
+class Crc32Digest extends MessageDigest {
+
+    private final CRC32 _crc = new CRC32();
+
+    Crc32Digest() {
+        super("CRC32");
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        _crc.update(input);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int length) {
+        _crc.update(input, offset, length);
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+
+        long value = _crc.getValue();
+        _crc.reset();
+
+        return new byte[] {
+                (byte) (value >>> 24),
+                (byte) (value >>> 16),
+                (byte) (value >>> 8),
+                (byte) value
+        };
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 4;
+    }
+
+    @Override
+    protected void engineReset() {
+        _crc.reset();
+    }
+}
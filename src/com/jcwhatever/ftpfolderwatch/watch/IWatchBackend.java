@@ -0,0 +1,47 @@
+package com.jcwhatever.ftpfolderwatch.watch;
+
+import com.jcwhatever.ftpfolderwatch.filter.IPathFilter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A type responsible for recursively watching a folder for file system changes.
+ */
+public interface IWatchBackend {
+
+    /**
+     * Start watching a folder and all of its sub folders.
+     *
+     * <p>Folders created after watching starts are watched automatically. When a new
+     * folder is watched, its existing contents are reported as created so that files
+     * created before the folder is watched are not missed.</p>
+     *
+     * <p>Folders excluded by the filter are not watched.</p>
+     *
+     * <p>If events are lost, the backend finds the changes that were not reported
+     * and reports them as created, modified or deleted.</p>
+     *
+     * @param folder    The folder to watch.
+     * @param filter    The filter that determines excluded files and folders.
+     * @param listener  The listener to report changes to.
+     *
+     * @throws IOException
+     */
+    void start(File folder, IPathFilter filter, IWatchListener listener) throws IOException;
+
+    /**
+     * Update watched folders after the filter rules have changed.
+     *
+     * <p>Must be called from an {@link IWatchListener} method.</p>
+     *
+     * @return  True if the backend reports files and folders that are no longer
+     * excluded as created, otherwise false.
+     */
+    boolean refresh();
+
+    /**
+     * Stop watching and release resources.
+     */
+    void dispose();
+}
@@ -0,0 +1,32 @@
+package com.jcwhatever.ftpfolderwatch.watch;
+
+import java.io.File;
+
+/**
+ * Receives file system changes from an {@link IWatchBackend}.
+ *
+ * <p>Methods are invoked from the backend's watch thread.</p>
+ */
+public interface IWatchListener {
+
+    /**
+     * Invoked when a file or folder is created or moved into the watched tree.
+     *
+     * @param file  The file or folder.
+     */
+    void onCreate(File file);
+
+    /**
+     * Invoked when a file is modified.
+     *
+     * @param file  The file.
+     */
+    void onModify(File file);
+
+    /**
+     * Invoked when a file or folder is deleted or moved out of the watched tree.
+     *
+     * @param file  The file or folder.
+     */
+    void onDelete(File file);
+}
@@ -0,0 +1,479 @@
+package com.jcwhatever.ftpfolderwatch.watch;
+
+import com.jcwhatever.ftpfolderwatch.filter.IPathFilter;
+
+import com.sun.jna.Library;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Linux watch backend that uses inotify directly through JNA.
+ *
+ * <p>Compared to the JDK {@code WatchService} on Linux, events are read with a large
+ * buffer and decoded in batches, new folders are watched from the watch thread as soon
+ * as their create event is read, and files are reported as modified once when they are
+ * closed after writing ({@code IN_CLOSE_WRITE}) instead of once per write.</p>
+ *
+ * <p>A snapshot of the tree is kept up to date with the reported events so that when the
+ * event queue overflows, the tree can be compared with the snapshot to find the changes
+ * that were not reported.</p>
+ */
+public class InotifyWatchBackend implements IWatchBackend {
+
+    private static final int IN_NONBLOCK = 0x800;
+    private static final int IN_CLOEXEC = 0x80000;
+
+    private static final int IN_CLOSE_WRITE = 0x8;
+    private static final int IN_MOVED_FROM = 0x40;
+    private static final int IN_MOVED_TO = 0x80;
+    private static final int IN_CREATE = 0x100;
+    private static final int IN_DELETE = 0x200;
+    private static final int IN_DELETE_SELF = 0x400;
+    private static final int IN_MOVE_SELF = 0x800;
+    private static final int IN_Q_OVERFLOW = 0x4000;
+    private static final int IN_IGNORED = 0x8000;
+    private static final int IN_ONLYDIR = 0x1000000;
+    private static final int IN_DONT_FOLLOW = 0x2000000;
+    private static final int IN_EXCL_UNLINK = 0x4000000;
+    private static final int IN_ISDIR = 0x40000000;
+
+    private static final int WATCH_MASK = IN_CLOSE_WRITE | IN_MOVED_FROM | IN_MOVED_TO |
+            IN_CREATE | IN_DELETE | IN_DELETE_SELF | IN_MOVE_SELF |
+            IN_ONLYDIR | IN_DONT_FOLLOW | IN_EXCL_UNLINK;
+
+    private static final short POLLIN = 0x1;
+    private static final int EAGAIN = 11;
+    private static final int EINTR = 4;
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int POLL_TIMEOUT = 500;
+
+    private final Map<Integer, File> _watches = new HashMap<>(10);
+    private final NavigableMap<String, Integer> _folders = new TreeMap<>();
+
+    private File _root;
+    private IPathFilter _filter;
+    private IWatchListener _listener;
+    private IWatchListener _events;
+    private SnapshotScanner _scanner;
+    private LiveSnapshot _snapshot;
+    private Thread _watchThread;
+    private int _fd = -1;
+
+    private volatile boolean _isRunning;
+
+    /**
+     * Determine if the inotify backend can be used on the current platform.
+     */
+    public static boolean isSupported() {
+        try {
+            return Platform.isLinux() && LibC.INSTANCE != null;
+        }
+        catch (Throwable e) {
+            // JNA not available
+            return false;
+        }
+    }
+
+    @Override
+    public void start(File folder, IPathFilter filter, IWatchListener listener) throws IOException {
+
+        _root = folder;
+        _filter = filter;
+        _listener = listener;
+        _fd = LibC.INSTANCE.inotify_init1(IN_NONBLOCK | IN_CLOEXEC);
+
+        if (_fd < 0)
+            throw new IOException("inotify_init1 failed. errno: " + Native.getLastError());
+
+        watch(folder, false);
+
+        _scanner = new SnapshotScanner(folder, filter, Runtime.getRuntime().availableProcessors());
+        _snapshot = new LiveSnapshot(folder, filter, _scanner.scan(null, false));
+        _events = _snapshot.track(listener);
+
+        _isRunning = true;
+        _watchThread = new Thread(new Watcher(), "InotifyWatchBackend");
+        _watchThread.start();
+    }
+
+    @Override
+    public void dispose() {
+        _isRunning = false;
+
+        if (_scanner != null)
+            _scanner.dispose();
+
+        if (_watchThread == null) {
+            close();
+            return;
+        }
+
+        // watch thread closes the descriptor when it exits.
+        _watchThread.interrupt();
+    }
+
+    @Override
+    public boolean refresh() {
+
+        // stop watching excluded folders
+        for (File folder : new ArrayList<>(_watches.values())) {
+            if (_filter.isExcluded(folder, true))
+                unwatch(folder);
+        }
+
+        // watch included folders
+        Set<File> watched = new HashSet<>(_watches.values());
+        for (File folder : new ArrayList<>(watched)) {
+            try {
+                watchMissing(folder, watched);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Recursively watch sub folders of a watched folder that are not watched.
+     */
+    private void watchMissing(File folder, Set<File> watched) throws IOException {
+
+        File[] files = folder.listFiles();
+        if (files == null)
+            return;
+
+        for (File file : files) {
+            if (!file.isDirectory() || _filter.isExcluded(file, true))
+                continue;
+
+            if (watched.contains(file)) {
+                continue;
+            }
+
+            watch(file, false);
+            watched.add(file);
+        }
+    }
+
+    /**
+     * Watch a folder and recursively watch all sub folders.
+     *
+     * @param folder  The folder to watch.
+     * @param isNew   True to report the contents of the folder as created.
+     */
+    private void watch(File folder, boolean isNew) throws IOException {
+
+        int wd = LibC.INSTANCE.inotify_add_watch(_fd, folder.getPath(), WATCH_MASK);
+        if (wd < 0) {
+            throw new IOException("Failed to watch folder: " + folder +
+                    ". errno: " + Native.getLastError());
+        }
+
+        _watches.put(wd, folder);
+        _folders.put(folder.getPath(), wd);
+
+        File[] files = folder.listFiles();
+        if (files == null)
+            return;
+
+        for (File file : files) {
+
+            boolean isFolder = file.isDirectory();
+
+            if (_filter.isExcluded(file, isFolder))
+                continue;
+
+            // report contents created before the watch was added.
+            if (isNew)
+                _events.onCreate(file);
+
+            if (isFolder)
+                watch(file, isNew);
+        }
+    }
+
+    /**
+     * Remove watches for a deleted or moved folder and its sub folders.
+     */
+    private void unwatch(File folder) {
+
+        String path = folder.getPath();
+
+        // not a watched folder
+        Integer wd = _folders.remove(path);
+        if (wd == null)
+            return;
+
+        removeWatch(wd);
+
+        // sub folder paths sort between the path followed by the
+        // separator and the path followed by the next character.
+        Iterator<Integer> iterator = _folders.subMap(
+                path + File.separatorChar, true,
+                path + (char)(File.separatorChar + 1), false).values().iterator();
+
+        while (iterator.hasNext()) {
+            removeWatch(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private void removeWatch(int wd) {
+
+        // the watch is already gone if the folder was deleted, the
+        // call only matters if the folder was moved out of the tree.
+        LibC.INSTANCE.inotify_rm_watch(_fd, wd);
+        _watches.remove(wd);
+    }
+
+    /**
+     * Find the changes lost by an event queue overflow by comparing the
+     * tree with the snapshot.
+     */
+    private void rescan() {
+
+        System.err.println("inotify event queue overflow, scanning for changes.");
+
+        Snapshot previous = _snapshot.get();
+        Snapshot current = _scanner.scan(previous, false);
+        _scanner.diff(previous, current, _root, true, new RescanListener());
+        _snapshot.set(current);
+    }
+
+    private void close() {
+        if (_fd < 0)
+            return;
+
+        LibC.INSTANCE.close(_fd);
+        _fd = -1;
+    }
+
+    /**
+     * Decode and dispatch a batch of events.
+     *
+     * @param buffer  The buffer containing the events.
+     */
+    private void dispatch(ByteBuffer buffer) {
+
+        byte[] nameBytes = new byte[256];
+
+        while (buffer.remaining() >= 16) {
+
+            int wd = buffer.getInt();
+            int mask = buffer.getInt();
+            buffer.getInt(); // cookie
+            int length = buffer.getInt();
+
+            String name = null;
+            if (length > 0) {
+
+                if (nameBytes.length < length)
+                    nameBytes = new byte[length];
+
+                buffer.get(nameBytes, 0, length);
+
+                // name is null padded
+                int end = 0;
+                while (end < length && nameBytes[end] != 0)
+                    end++;
+
+                name = new String(nameBytes, 0, end, StandardCharsets.UTF_8);
+            }
+
+            if ((mask & IN_Q_OVERFLOW) != 0) {
+                rescan();
+                continue;
+            }
+
+            File folder = _watches.get(wd);
+
+            if ((mask & IN_IGNORED) != 0) {
+                _watches.remove(wd);
+
+                if (folder != null && Integer.valueOf(wd).equals(_folders.get(folder.getPath())))
+                    _folders.remove(folder.getPath());
+                continue;
+            }
+
+            if (folder == null || name == null)
+                continue;
+
+            File file = new File(folder, name);
+            boolean isDir = (mask & IN_ISDIR) != 0;
+
+            if ((mask & (IN_CREATE | IN_MOVED_TO)) != 0) {
+
+                // files are reported when closed after writing
+                if (!isDir && (mask & IN_MOVED_TO) == 0)
+                    continue;
+
+                _events.onCreate(file);
+
+                if (isDir && !_filter.isExcluded(file, true)) {
+                    try {
+                        watch(file, true);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            else if ((mask & IN_CLOSE_WRITE) != 0) {
+                _events.onModify(file);
+            }
+            else if ((mask & (IN_DELETE | IN_MOVED_FROM)) != 0) {
+
+                if (isDir)
+                    unwatch(file);
+
+                _events.onDelete(file);
+            }
+        }
+    }
+
+    /**
+     * Watch thread. Reads events in batches.
+     */
+    private class Watcher implements Runnable {
+
+        @Override
+        public void run() {
+
+            // events are read into native memory and decoded in place
+            // so the buffer is not copied on each read.
+            Memory memory = new Memory(BUFFER_SIZE);
+            ByteBuffer buffer = memory.getByteBuffer(0, BUFFER_SIZE).order(ByteOrder.nativeOrder());
+            NativeLong count = new NativeLong(BUFFER_SIZE);
+            PollFd pollFd = new PollFd();
+
+            try {
+                while (_isRunning && !Thread.currentThread().isInterrupted()) {
+
+                    pollFd.fd = _fd;
+                    pollFd.events = POLLIN;
+                    pollFd.revents = 0;
+
+                    int ready = LibC.INSTANCE.poll(pollFd, 1, POLL_TIMEOUT);
+                    if (ready == 0)
+                        continue;
+
+                    if (ready < 0) {
+                        if (Native.getLastError() == EINTR)
+                            continue;
+
+                        System.err.println("inotify poll failed. errno: " + Native.getLastError());
+                        break;
+                    }
+
+                    // drain all events currently queued.
+                    while (true) {
+                        int read = LibC.INSTANCE.read(_fd, memory, count).intValue();
+                        if (read <= 0) {
+                            int error = Native.getLastError();
+                            if (read < 0 && error != EAGAIN && error != EINTR)
+                                System.err.println("inotify read failed. errno: " + error);
+                            break;
+                        }
+
+                        buffer.clear();
+                        buffer.limit(read);
+                        dispatch(buffer);
+                    }
+                }
+            }
+            finally {
+                close();
+            }
+        }
+    }
+
+    /**
+     * struct pollfd
+     */
+    public static class PollFd extends Structure {
+
+        public int fd;
+        public short events;
+        public short revents;
+
+        @Override
+        protected List<String> getFieldOrder() {
+            return Arrays.asList("fd", "events", "revents");
+        }
+    }
+
+    /**
+     * libc functions used by the backend.
+     */
+    private interface LibC extends Library {
+
+        LibC INSTANCE = (LibC) Native.loadLibrary("c", LibC.class);
+
+        int inotify_init1(int flags);
+
+        int inotify_add_watch(int fd, String path, int mask);
+
+        int inotify_rm_watch(int fd, int wd);
+
+        int poll(PollFd fds, int nfds, int timeout);
+
+        NativeLong read(int fd, Pointer buffer, NativeLong count);
+
+        int close(int fd);
+    }
+
+    /**
+     * Receives changes found by a rescan and watches or unwatches
+     * folders before reporting them.
+     */
+    private class RescanListener implements IWatchListener {
+
+        @Override
+        public void onCreate(File file) {
+
+            // the contents of the folder are reported separately.
+            if (file.isDirectory() && !_filter.isExcluded(file, true) &&
+                    !_folders.containsKey(file.getPath())) {
+                try {
+                    watch(file, false);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            _listener.onCreate(file);
+        }
+
+        @Override
+        public void onModify(File file) {
+            _listener.onModify(file);
+        }
+
+        @Override
+        public void onDelete(File file) {
+            unwatch(file);
+            _listener.onDelete(file);
+        }
+    }
+}
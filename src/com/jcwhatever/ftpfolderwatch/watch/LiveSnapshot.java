@@ -0,0 +1,255 @@
+package com.jcwhatever.ftpfolderwatch.watch;
+
+import com.jcwhatever.ftpfolderwatch.filter.IPathFilter;
+import com.jcwhatever.ftpfolderwatch.watch.Snapshot.Listing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A {@link Snapshot} of a watched tree that is kept up to date with the changes
+ * reported by watch events, so that comparing it with a scan after events were
+ * lost only finds the changes that were not reported.
+ *
+ * <p>Reported changes are recorded by path along with the size and last modified
+ * time of the file when it was reported. They are applied to the snapshot in one
+ * pass when the snapshot is requested or when enough changes have been recorded,
+ * so the snapshot is not rebuilt for every event.</p>
+ *
+ * <p>Not thread safe. Used from the watch thread.</p>
+ */
+class LiveSnapshot {
+
+    private static final int MIN_CHANGES = 1024;
+
+    // compared by reference. The contents of a created folder are recorded separately.
+    private static final Change DELETED = new Change(0, 0);
+    private static final Change CREATED_FOLDER = new Change(0, 0);
+
+    private final File _root;
+    private final IPathFilter _filter;
+    private final TreeMap<String, Change> _changes = new TreeMap<>();
+
+    private Snapshot _snapshot;
+
+    /**
+     * Constructor.
+     *
+     * @param root      The root folder of the tree.
+     * @param filter    The filter of excluded files and folders, which are left out.
+     * @param snapshot  The initial snapshot of the tree.
+     */
+    LiveSnapshot(File root, IPathFilter filter, Snapshot snapshot) {
+        _root = root;
+        _filter = filter;
+        _snapshot = snapshot;
+    }
+
+    /**
+     * Get the snapshot with all reported changes applied.
+     */
+    Snapshot get() {
+
+        if (!_changes.isEmpty()) {
+            _snapshot = Snapshot.build(patch(0, _root.getPath()));
+            _changes.clear();
+        }
+
+        return _snapshot;
+    }
+
+    /**
+     * Replace the snapshot with a new scan and discard the reported changes.
+     */
+    void set(Snapshot snapshot) {
+        _snapshot = snapshot;
+        _changes.clear();
+    }
+
+    /**
+     * Get a listener that records each change in the snapshot before
+     * reporting it to the specified listener.
+     */
+    IWatchListener track(final IWatchListener listener) {
+        return new IWatchListener() {
+            @Override
+            public void onCreate(File file) {
+                created(file);
+                listener.onCreate(file);
+            }
+
+            @Override
+            public void onModify(File file) {
+                modified(file);
+                listener.onModify(file);
+            }
+
+            @Override
+            public void onDelete(File file) {
+                deleted(file);
+                listener.onDelete(file);
+            }
+        };
+    }
+
+    private void created(File file) {
+
+        BasicFileAttributes attributes = readAttributes(file);
+        if (attributes == null) {
+            // already deleted again
+            deleted(file);
+            return;
+        }
+
+        if (_filter.isExcluded(file, attributes.isDirectory()))
+            return;
+
+        if (attributes.isDirectory()) {
+            // the contents are recorded as they are reported.
+            removeContents(file.getPath());
+            put(file.getPath(), CREATED_FOLDER);
+        }
+        else {
+            put(file.getPath(), new Change(attributes.size(),
+                    attributes.lastModifiedTime().toMillis()));
+        }
+    }
+
+    private void modified(File file) {
+
+        // folders are modified when their entries change, which are reported separately.
+        BasicFileAttributes attributes = readAttributes(file);
+        if (attributes == null || attributes.isDirectory() || _filter.isExcluded(file, false))
+            return;
+
+        put(file.getPath(), new Change(attributes.size(),
+                attributes.lastModifiedTime().toMillis()));
+    }
+
+    private void deleted(File file) {
+        removeContents(file.getPath());
+        put(file.getPath(), DELETED);
+    }
+
+    private void put(String path, Change change) {
+
+        _changes.put(path, change);
+
+        if (_changes.size() > Math.max(MIN_CHANGES, _snapshot.size() / 8))
+            get();
+    }
+
+    private void removeContents(String path) {
+        getContents(path).clear();
+    }
+
+    /**
+     * Get the recorded changes of the contents of a folder, including sub folders.
+     */
+    private SortedMap<String, Change> getContents(String path) {
+
+        // content paths sort between the path followed by the
+        // separator and the path followed by the next character.
+        return _changes.subMap(path + File.separatorChar, path + (char)(File.separatorChar + 1));
+    }
+
+    /**
+     * Get the listing of a folder with the recorded changes applied.
+     *
+     * @param entry  The entry of the folder in the snapshot or -1 if it was created.
+     * @param path   The path of the folder.
+     */
+    private Listing patch(int entry, String path) {
+
+        SortedMap<String, Change> contents = getContents(path);
+        if (entry >= 0 && contents.isEmpty())
+            return Listing.copy(_snapshot, entry);
+
+        // children by name. The value is the entry of an unchanged child
+        // in the snapshot or the recorded change.
+        TreeMap<String, Object> children = new TreeMap<>();
+
+        if (entry >= 0) {
+            int start = _snapshot.getChildStart(entry);
+            int end = start + _snapshot.getChildCount(entry);
+
+            for (int i = start; i < end; i++) {
+                children.put(_snapshot.getName(i), i);
+            }
+        }
+
+        int nameStart = path.length() + 1;
+        for (Map.Entry<String, Change> content : contents.entrySet()) {
+            String name = content.getKey().substring(nameStart);
+            if (name.indexOf(File.separatorChar) == -1)
+                children.put(name, content.getValue());
+        }
+
+        // a created folder is always listed again by the next scan.
+        long mtime = entry >= 0 ? _snapshot.getModified(entry) : -1;
+        Listing listing = new Listing(mtime, children.size(), _snapshot);
+        int count = 0;
+
+        for (Map.Entry<String, Object> child : children.entrySet()) {
+
+            String childPath = path + File.separatorChar + child.getKey();
+
+            if (child.getValue() instanceof Integer) {
+                int childEntry = (Integer)child.getValue();
+                listing.copy(count, childEntry);
+
+                if (_snapshot.isFolder(childEntry))
+                    listing.folders[count] = patch(childEntry, childPath);
+            }
+            else {
+                Change change = (Change)child.getValue();
+                if (change == DELETED)
+                    continue;
+
+                listing.names[count] = child.getKey();
+
+                if (change == CREATED_FOLDER) {
+                    listing.mtimes[count] = -1;
+                    listing.folders[count] = patch(-1, childPath);
+                }
+                else {
+                    listing.sizes[count] = change.size;
+                    listing.mtimes[count] = change.mtime;
+                }
+            }
+
+            count++;
+        }
+
+        return listing.trim(count);
+    }
+
+    private static BasicFileAttributes readAttributes(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The reported size and last modified time of a file.
+     */
+    private static class Change {
+
+        final long size;
+        final long mtime;
+
+        Change(long size, long mtime) {
+            this.size = size;
+            this.mtime = mtime;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.jcwhatever.ftpfolderwatch.watch;
+
+import com.jcwhatever.ftpfolderwatch.filter.IPathFilter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Watch backend that periodically scans the folder tree and compares it to
+ * the previous scan.
+ *
+ * <p>Used for network file systems (NFS, SMB) where native change events are not
+ * delivered. Folders are scanned in parallel. A folder whose last modified time has
+ * not changed since the previous scan has not had entries added or removed, so it is
+ * not listed again and the names from the previous scan are reused. Optionally, the
+ * files in such folders are not checked either, which only detects modifications that
+ * replace a file (i.e. save by rename) but makes polling an unchanged tree almost free.</p>
+ *
+ * <p>A folder modified shortly before the previous scan started is always listed again
+ * because a change made within the file system's timestamp granularity would not change
+ * its last modified time.</p>
+ */
+public class PollingWatchBackend implements IWatchBackend {
+
+    private long _interval = 5000;
+    private int _parallelism = Runtime.getRuntime().availableProcessors();
+    private boolean _checkUnchangedFolders = true;
+
+    private File _root;
+    private IWatchListener _listener;
+    private SnapshotScanner _scanner;
+    private Snapshot _snapshot;
+
+    private volatile boolean _isFilterChanged;
+    private Thread _pollThread;
+
+    private volatile boolean _isRunning;
+
+    /**
+     * Set the number of milliseconds between scans.
+     */
+    public void setInterval(long interval) {
+        _interval = interval;
+    }
+
+    /**
+     * Set the number of threads used to scan.
+     */
+    public void setParallelism(int parallelism) {
+        _parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Set whether the files in folders that have not changed are checked for
+     * modifications. Default is true.
+     */
+    public void setCheckUnchangedFolders(boolean isChecked) {
+        _checkUnchangedFolders = isChecked;
+    }
+
+    @Override
+    public void start(File folder, IPathFilter filter, IWatchListener listener) throws IOException {
+
+        if (!folder.isDirectory())
+            throw new IOException("Folder not found: " + folder);
+
+        _root = folder;
+        _listener = listener;
+        _scanner = new SnapshotScanner(folder, filter, _parallelism);
+        _scanner.setCheckUnchangedFolders(_checkUnchangedFolders);
+        _snapshot = _scanner.scan(null, false);
+
+        System.out.println("Polling " + (_snapshot.size() - 1) + " files and folders every " +
+                _interval + "ms.");
+
+        _isRunning = true;
+        _pollThread = new Thread(new Poller(), "PollingWatchBackend");
+        _pollThread.start();
+    }
+
+    @Override
+    public void dispose() {
+        _isRunning = false;
+
+        if (_pollThread != null)
+            _pollThread.interrupt();
+
+        if (_scanner != null)
+            _scanner.dispose();
+    }
+
+    @Override
+    public boolean refresh() {
+        // excluded entries are left out of each scan, list all folders
+        // on the next scan to find entries that are no longer excluded.
+        _isFilterChanged = true;
+        return true;
+    }
+
+    /**
+     * Poll thread.
+     */
+    private class Poller implements Runnable {
+
+        @Override
+        public void run() {
+
+            while (_isRunning) {
+
+                try {
+                    Thread.sleep(_interval);
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                boolean isFullScan = _isFilterChanged;
+                _isFilterChanged = false;
+
+                Snapshot current;
+                try {
+                    current = _scanner.scan(_snapshot, isFullScan);
+                }
+                catch (RuntimeException e) {
+                    if (!_isRunning)
+                        break;
+
+                    e.printStackTrace();
+                    continue;
+                }
+
+                _scanner.diff(_snapshot, current, _root, true, _listener);
+                _snapshot = current;
+            }
+        }
+    }
+}
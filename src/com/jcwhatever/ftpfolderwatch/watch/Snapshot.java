@@ -0,0 +1,331 @@
+package com.jcwhatever.ftpfolderwatch.watch;
+
+import java.util.Arrays;
+
+/**
+ * Compact snapshot of a folder tree used by the watch backends.
+ *
+ * <p>Entries are stored in parallel primitive arrays instead of one object per
+ * file. Names share a single {@code char} pool. The children of each folder are
+ * stored contiguously and sorted by name so they can be merged against another
+ * snapshot or searched without building any lookup structures. Entry 0 is the
+ * root folder.</p>
+ */
+class Snapshot {
+
+    private final char[] _names;
+    private final int[] _nameStart;
+    private final int[] _nameLength;
+    private final long[] _sizes;
+    private final long[] _mtimes;
+    private final int[] _childStart;
+    private final int[] _childCount;
+
+    private int _nextEntry;
+    private int _nextChar;
+
+    /**
+     * Build a snapshot from a scanned folder listing.
+     *
+     * @param root  The listing of the root folder.
+     */
+    static Snapshot build(Listing root) {
+
+        int[] totals = new int[2];
+        count(root, totals);
+
+        Snapshot snapshot = new Snapshot(totals[0] + 1, totals[1]);
+
+        // root entry
+        snapshot.add("", 0, root.mtime);
+        snapshot.fill(0, root);
+
+        return snapshot;
+    }
+
+    private Snapshot(int entries, int chars) {
+        _names = new char[chars];
+        _nameStart = new int[entries];
+        _nameLength = new int[entries];
+        _sizes = new long[entries];
+        _mtimes = new long[entries];
+        _childStart = new int[entries];
+        _childCount = new int[entries];
+    }
+
+    /**
+     * Get the number of entries, including the root folder.
+     */
+    int size() {
+        return _sizes.length;
+    }
+
+    /**
+     * Get the name of an entry.
+     */
+    String getName(int entry) {
+        return new String(_names, _nameStart[entry], _nameLength[entry]);
+    }
+
+    /**
+     * Get the size of a file entry in bytes.
+     */
+    long getSize(int entry) {
+        return _sizes[entry];
+    }
+
+    /**
+     * Get the last modified time of an entry.
+     */
+    long getModified(int entry) {
+        return _mtimes[entry];
+    }
+
+    /**
+     * Determine if an entry is a folder.
+     */
+    boolean isFolder(int entry) {
+        return _childStart[entry] >= 0;
+    }
+
+    /**
+     * Get the index of the first child of a folder entry.
+     */
+    int getChildStart(int entry) {
+        return _childStart[entry];
+    }
+
+    /**
+     * Get the number of children of a folder entry. 0 if the entry is a file.
+     */
+    int getChildCount(int entry) {
+        return _childCount[entry];
+    }
+
+    /**
+     * Find a child of a folder entry by name.
+     *
+     * @param folder  The folder entry.
+     * @param name    The child name.
+     *
+     * @return  The child entry or -1 if not found.
+     */
+    int findChild(int folder, String name) {
+
+        int low = _childStart[folder];
+        int high = low + _childCount[folder] - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = compareName(mid, name);
+
+            if (compare < 0) {
+                low = mid + 1;
+            }
+            else if (compare > 0) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compare the name of an entry to a name using {@code String} ordering.
+     */
+    int compareName(int entry, String name) {
+
+        int start = _nameStart[entry];
+        int length = _nameLength[entry];
+        int min = Math.min(length, name.length());
+
+        for (int i = 0; i < min; i++) {
+            int diff = _names[start + i] - name.charAt(i);
+            if (diff != 0)
+                return diff;
+        }
+        return length - name.length();
+    }
+
+    /**
+     * Compare the names of an entry in this snapshot and an entry in another.
+     */
+    int compareName(int entry, Snapshot other, int otherEntry) {
+
+        int start = _nameStart[entry];
+        int length = _nameLength[entry];
+        int otherStart = other._nameStart[otherEntry];
+        int otherLength = other._nameLength[otherEntry];
+        int min = Math.min(length, otherLength);
+
+        for (int i = 0; i < min; i++) {
+            int diff = _names[start + i] - other._names[otherStart + i];
+            if (diff != 0)
+                return diff;
+        }
+        return length - otherLength;
+    }
+
+    private static void count(Listing listing, int[] totals) {
+        totals[0] += listing.names.length;
+
+        for (int i = 0; i < listing.names.length; i++) {
+            totals[1] += listing.names[i] != null
+                    ? listing.names[i].length()
+                    : listing.source._nameLength[listing.sources[i]];
+
+            if (listing.folders[i] != null)
+                count(listing.folders[i], totals);
+        }
+    }
+
+    private int add(String name, long size, long mtime) {
+        int entry = _nextEntry++;
+
+        name.getChars(0, name.length(), _names, _nextChar);
+        _nameStart[entry] = _nextChar;
+        _nameLength[entry] = name.length();
+        _nextChar += name.length();
+
+        _sizes[entry] = size;
+        _mtimes[entry] = mtime;
+        _childStart[entry] = -1;
+        return entry;
+    }
+
+    private int add(Snapshot source, int sourceEntry, long size, long mtime) {
+        int entry = _nextEntry++;
+        int length = source._nameLength[sourceEntry];
+
+        System.arraycopy(source._names, source._nameStart[sourceEntry], _names, _nextChar, length);
+        _nameStart[entry] = _nextChar;
+        _nameLength[entry] = length;
+        _nextChar += length;
+
+        _sizes[entry] = size;
+        _mtimes[entry] = mtime;
+        _childStart[entry] = -1;
+        return entry;
+    }
+
+    private void fill(int folder, Listing listing) {
+
+        int start = _nextEntry;
+        int count = listing.names.length;
+
+        _childStart[folder] = start;
+        _childCount[folder] = count;
+
+        // children are contiguous, sub folder contents follow.
+        for (int i = 0; i < count; i++) {
+            if (listing.names[i] != null) {
+                add(listing.names[i], listing.sizes[i], listing.mtimes[i]);
+            }
+            else {
+                add(listing.source, listing.sources[i], listing.sizes[i], listing.mtimes[i]);
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (listing.folders[i] != null)
+                fill(start + i, listing.folders[i]);
+        }
+    }
+
+    /**
+     * Temporary listing of a folder produced while scanning.
+     *
+     * <p>Children copied from a previous snapshot have a null name and refer to
+     * their entry in the source snapshot instead, so the name is not decoded.</p>
+     */
+    static class Listing {
+
+        final long mtime;
+        final String[] names;
+        final long[] sizes;
+        final long[] mtimes;
+        final Listing[] folders;
+        final Snapshot source;
+        final int[] sources;
+
+        /**
+         * Constructor.
+         *
+         * @param mtime     The last modified time of the folder.
+         * @param capacity  The max number of children.
+         */
+        Listing(long mtime, int capacity) {
+            this(mtime, capacity, null);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param mtime     The last modified time of the folder.
+         * @param capacity  The max number of children.
+         * @param source    The snapshot children can be copied from. Can be null.
+         */
+        Listing(long mtime, int capacity, Snapshot source) {
+            this.mtime = mtime;
+            this.source = source;
+            names = new String[capacity];
+            sizes = new long[capacity];
+            mtimes = new long[capacity];
+            folders = new Listing[capacity];
+            sources = source != null ? new int[capacity] : null;
+        }
+
+        private Listing(Listing listing, int count) {
+            mtime = listing.mtime;
+            source = listing.source;
+            names = Arrays.copyOf(listing.names, count);
+            sizes = Arrays.copyOf(listing.sizes, count);
+            mtimes = Arrays.copyOf(listing.mtimes, count);
+            folders = Arrays.copyOf(listing.folders, count);
+            sources = listing.sources != null ? Arrays.copyOf(listing.sources, count) : null;
+        }
+
+        /**
+         * Copy the listing of a folder and its sub folders from a snapshot.
+         *
+         * @param snapshot  The snapshot.
+         * @param entry     The entry of the folder.
+         */
+        static Listing copy(Snapshot snapshot, int entry) {
+
+            int start = snapshot.getChildStart(entry);
+            int count = snapshot.getChildCount(entry);
+            Listing listing = new Listing(snapshot.getModified(entry), count, snapshot);
+
+            for (int i = 0; i < count; i++) {
+                listing.copy(i, start + i);
+
+                if (snapshot.isFolder(start + i))
+                    listing.folders[i] = copy(snapshot, start + i);
+            }
+
+            return listing;
+        }
+
+        /**
+         * Set a child copied from the source snapshot.
+         *
+         * @param index        The index of the child.
+         * @param sourceEntry  The entry of the child in the source snapshot.
+         */
+        void copy(int index, int sourceEntry) {
+            sources[index] = sourceEntry;
+            sizes[index] = source.getSize(sourceEntry);
+            mtimes[index] = source.getModified(sourceEntry);
+        }
+
+        /**
+         * Get a listing trimmed to the specified number of children.
+         */
+        Listing trim(int count) {
+            return count == names.length ? this : new Listing(this, count);
+        }
+    }
+}
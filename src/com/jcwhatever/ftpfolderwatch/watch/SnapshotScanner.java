@@ -0,0 +1,355 @@
+package com.jcwhatever.ftpfolderwatch.watch;
+
+import com.jcwhatever.ftpfolderwatch.filter.IPathFilter;
+import com.jcwhatever.ftpfolderwatch.watch.Snapshot.Listing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Scans a folder tree into a {@link Snapshot} and reports the differences
+ * between two snapshots to an {@link IWatchListener}.
+ *
+ * <p>Folders are scanned in parallel. A folder whose last modified time has not changed
+ * since the previous scan has not had entries added or removed, so it is not listed
+ * again and the names from the previous scan are reused. Optionally, the files in such
+ * folders are not checked either.</p>
+ *
+ * <p>A folder modified shortly before the previous scan started is always listed again
+ * because a change made within the file system's timestamp granularity would not change
+ * its last modified time.</p>
+ *
+ * <p>Scans must not be run concurrently.</p>
+ */
+class SnapshotScanner {
+
+    private final File _root;
+    private final IPathFilter _filter;
+    private final ForkJoinPool _pool;
+
+    private boolean _checkUnchangedFolders = true;
+
+    // state of the scan in progress, read by scan tasks.
+    private long _snapshotTime;
+    private boolean _isFullScan;
+    private Path _target;
+
+    /**
+     * Constructor.
+     *
+     * @param root         The root folder of the tree.
+     * @param filter       The filter of excluded files and folders, which are left out.
+     * @param parallelism  The number of threads used to scan.
+     */
+    SnapshotScanner(File root, IPathFilter filter, int parallelism) {
+        _root = root;
+        _filter = filter;
+        _pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * Set whether the files in folders that have not changed are checked for
+     * modifications. Default is true.
+     */
+    void setCheckUnchangedFolders(boolean isChecked) {
+        _checkUnchangedFolders = isChecked;
+    }
+
+    /**
+     * Stop the scan threads.
+     */
+    void dispose() {
+        _pool.shutdownNow();
+    }
+
+    /**
+     * Scan the folder tree.
+     *
+     * @param previous    The previous snapshot or null if there is none.
+     * @param isFullScan  True to list every folder again, i.e. after the filter changed.
+     */
+    Snapshot scan(Snapshot previous, boolean isFullScan) {
+
+        long time = System.currentTimeMillis();
+
+        Snapshot snapshot = scan(previous, isFullScan, null);
+
+        _snapshotTime = time;
+        return snapshot;
+    }
+
+    /**
+     * Scan the contents of one folder again without scanning its sub folders.
+     *
+     * <p>Other folders are copied from the previous snapshot, except folders that
+     * are not in it, which are scanned.</p>
+     *
+     * @param previous  The previous snapshot.
+     * @param folder    The folder to scan.
+     */
+    Snapshot scanFolder(Snapshot previous, File folder) {
+        return scan(previous, false, folder.toPath());
+    }
+
+    /**
+     * Report the differences between the contents of a folder in two snapshots.
+     *
+     * <p>If the folder is not in the previous snapshot, its contents are reported
+     * as created.</p>
+     *
+     * @param previous     The previous snapshot.
+     * @param current      The current snapshot.
+     * @param folder       The folder.
+     * @param isRecursive  True to also compare the contents of sub folders.
+     * @param listener     The listener to report differences to.
+     */
+    void diff(Snapshot previous, Snapshot current, File folder,
+              boolean isRecursive, IWatchListener listener) {
+
+        // removed, reported by the parent folder.
+        int currentEntry = findFolder(current, folder);
+        if (currentEntry < 0)
+            return;
+
+        int previousEntry = findFolder(previous, folder);
+        if (previousEntry < 0) {
+            createdContents(current, currentEntry, folder, listener);
+            return;
+        }
+
+        diff(previous, previousEntry, current, currentEntry, folder, isRecursive, listener);
+    }
+
+    private Snapshot scan(Snapshot previous, boolean isFullScan, Path target) {
+
+        _isFullScan = isFullScan;
+        _target = target;
+
+        Listing listing = _pool.invoke(new ScanTask(_root, previous, previous != null ? 0 : -1));
+        return Snapshot.build(listing);
+    }
+
+    /**
+     * Find the entry of a folder in a snapshot.
+     *
+     * @return  The entry or -1 if not found.
+     */
+    private int findFolder(Snapshot snapshot, File folder) {
+
+        Path relative = _root.toPath().relativize(folder.toPath());
+        if (relative.toString().isEmpty())
+            return 0;
+
+        int entry = 0;
+
+        for (Path name : relative) {
+            entry = snapshot.findChild(entry, name.toString());
+            if (entry < 0 || !snapshot.isFolder(entry))
+                return -1;
+        }
+
+        return entry;
+    }
+
+    private void diff(Snapshot previous, int previousEntry,
+                      Snapshot current, int currentEntry, File folder,
+                      boolean isRecursive, IWatchListener listener) {
+
+        int p = previous.getChildStart(previousEntry);
+        int pEnd = p + previous.getChildCount(previousEntry);
+        int c = current.getChildStart(currentEntry);
+        int cEnd = c + current.getChildCount(currentEntry);
+
+        // merge sorted children
+        while (p < pEnd || c < cEnd) {
+
+            int compare = p == pEnd ? 1
+                    : c == cEnd ? -1
+                    : previous.compareName(p, current, c);
+
+            if (compare < 0) {
+                listener.onDelete(new File(folder, previous.getName(p)));
+                p++;
+            }
+            else if (compare > 0) {
+                created(current, c, new File(folder, current.getName(c)), listener);
+                c++;
+            }
+            else {
+                // the file is only created for entries that are reported
+                // or recursed into, unchanged files allocate nothing.
+                boolean wasFolder = previous.isFolder(p);
+                boolean isFolder = current.isFolder(c);
+
+                if (wasFolder != isFolder) {
+                    File file = new File(folder, current.getName(c));
+                    listener.onDelete(file);
+                    created(current, c, file, listener);
+                }
+                else if (isFolder) {
+                    if (isRecursive)
+                        diff(previous, p, current, c, new File(folder, current.getName(c)), true, listener);
+                }
+                else if (previous.getSize(p) != current.getSize(c) ||
+                        previous.getModified(p) != current.getModified(c)) {
+                    listener.onModify(new File(folder, current.getName(c)));
+                }
+
+                p++;
+                c++;
+            }
+        }
+    }
+
+    /**
+     * Report an entry and all of its contents as created.
+     */
+    private void created(Snapshot snapshot, int entry, File file, IWatchListener listener) {
+
+        listener.onCreate(file);
+
+        if (snapshot.isFolder(entry))
+            createdContents(snapshot, entry, file, listener);
+    }
+
+    /**
+     * Report the contents of a folder entry as created.
+     */
+    private void createdContents(Snapshot snapshot, int entry, File folder, IWatchListener listener) {
+
+        int start = snapshot.getChildStart(entry);
+        int end = start + snapshot.getChildCount(entry);
+
+        for (int i = start; i < end; i++) {
+            created(snapshot, i, new File(folder, snapshot.getName(i)), listener);
+        }
+    }
+
+    /**
+     * Scans a folder and forks tasks to scan its sub folders.
+     */
+    private class ScanTask extends RecursiveTask<Listing> {
+
+        private static final long serialVersionUID = 1L;
+
+        final File folder;
+        final Snapshot previous;
+        final int previousEntry;
+
+        ScanTask(File folder, Snapshot previous, int previousEntry) {
+            this.folder = folder;
+            this.previous = previous;
+            this.previousEntry = previousEntry;
+        }
+
+        @Override
+        protected Listing compute() {
+
+            // scanning one folder, only the folder and the folders
+            // leading to it are listed again.
+            Path target = _target;
+            if (target != null && previousEntry >= 0 && !target.startsWith(folder.toPath()))
+                return Listing.copy(previous, previousEntry);
+
+            long mtime = folder.lastModified();
+            boolean isUnchanged = target == null && previousEntry >= 0 && !_isFullScan &&
+                    previous.getModified(previousEntry) == mtime &&
+                    mtime < _snapshotTime - 2000;
+
+            // no entries added or removed, entries are read from the previous
+            // scan instead of listing the folder.
+            String[] names = null;
+            int start = 0;
+            int length;
+
+            if (isUnchanged) {
+                start = previous.getChildStart(previousEntry);
+                length = previous.getChildCount(previousEntry);
+            }
+            else {
+                names = folder.list();
+
+                if (names == null) {
+                    // unreadable or temporarily unavailable, treat as unchanged
+                    // so the contents are not reported as deleted.
+                    return previousEntry >= 0
+                            ? Listing.copy(previous, previousEntry)
+                            : new Listing(mtime, 0);
+                }
+
+                Arrays.sort(names);
+                length = names.length;
+            }
+
+            Listing listing = new Listing(mtime, length, isUnchanged ? previous : null);
+            List<ScanTask> tasks = new ArrayList<>(4);
+            List<Integer> taskIndexes = new ArrayList<>(4);
+            int count = 0;
+
+            for (int i = 0; i < length; i++) {
+
+                int previousChild = isUnchanged
+                        ? start + i
+                        : previousEntry >= 0
+                                ? previous.findChild(previousEntry, names[i])
+                                : -1;
+
+                // copied without decoding the name or checking the file.
+                if (isUnchanged && !_checkUnchangedFolders && !previous.isFolder(previousChild)) {
+                    listing.copy(count, previousChild);
+                    count++;
+                    continue;
+                }
+
+                String name = isUnchanged ? previous.getName(previousChild) : names[i];
+                File file = new File(folder, name);
+
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    // removed since listed
+                    if (isUnchanged)
+                        return Listing.copy(previous, previousEntry);
+
+                    continue;
+                }
+
+                if (_filter.isExcluded(file, attributes.isDirectory()))
+                    continue;
+
+                listing.names[count] = name;
+                listing.sizes[count] = attributes.size();
+                listing.mtimes[count] = attributes.lastModifiedTime().toMillis();
+
+                if (attributes.isDirectory()) {
+                    if (previousChild >= 0 && !previous.isFolder(previousChild))
+                        previousChild = -1;
+
+                    tasks.add(new ScanTask(file, previous, previousChild));
+                    taskIndexes.add(count);
+                }
+
+                count++;
+            }
+
+            invokeAll(tasks);
+
+            for (int i = 0; i < tasks.size(); i++) {
+                listing.folders[taskIndexes.get(i)] = tasks.get(i).join();
+            }
+
+            return listing.trim(count);
+        }
+    }
+}
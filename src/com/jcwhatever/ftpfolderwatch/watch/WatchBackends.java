@@ -0,0 +1,48 @@
+package com.jcwhatever.ftpfolderwatch.watch;
+
+/**
+ * Creates {@link IWatchBackend} instances by name.
+ */
+public class WatchBackends {
+
+    private WatchBackends() {}
+
+    /**
+     * Create a watch backend.
+     *
+     * <ul>
+     *     <li>"jdk" - Portable JDK {@code WatchService} backend.</li>
+     *     <li>"inotify" - Linux inotify backend. Requires JNA.</li>
+     *     <li>"poll" - Polling backend for network file systems.</li>
+     *     <li>"auto" - inotify if supported, otherwise jdk.</li>
+     * </ul>
+     *
+     * @param name  The backend name.
+     *
+     * @throws IllegalArgumentException if the name is not valid or the backend is not supported.
+     */
+    public static IWatchBackend create(String name) {
+
+        switch (name) {
+            case "jdk":
+                return new WatchServiceBackend();
+
+            case "inotify":
+                if (!InotifyWatchBackend.isSupported())
+                    throw new IllegalArgumentException("inotify watcher is not supported on this system.");
+
+                return new InotifyWatchBackend();
+
+            case "poll":
+                return new PollingWatchBackend();
+
+            case "auto":
+                return InotifyWatchBackend.isSupported()
+                        ? new InotifyWatchBackend()
+                        : new WatchServiceBackend();
+
+            default:
+                throw new IllegalArgumentException("Invalid watcher: " + name);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.jcwhatever.ftpfolderwatch.watch;
+
+import com.jcwhatever.ftpfolderwatch.filter.IPathFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Portable watch backend that uses the JDK {@code WatchService}.
+ *
+ * <p>Requires one registration per folder. A snapshot of the tree is kept up to date with
+ * the reported events so that when the events of a folder are lost, the folder can be
+ * compared with the snapshot to find the changes that were not reported.</p>
+ */
+public class WatchServiceBackend implements IWatchBackend {
+
+    private final Map<WatchKey, File> _keyMap = new HashMap<>(10);
+    private final NavigableMap<String, WatchKey> _folders = new TreeMap<>();
+
+    private WatchService _watcher;
+    private IPathFilter _filter;
+    private IWatchListener _listener;
+    private IWatchListener _events;
+    private SnapshotScanner _scanner;
+    private LiveSnapshot _snapshot;
+    private Thread _watchThread;
+
+    private volatile boolean _isRunning;
+
+    @Override
+    public void start(File folder, IPathFilter filter, IWatchListener listener) throws IOException {
+
+        _filter = filter;
+        _listener = listener;
+        _watcher = FileSystems.getDefault().newWatchService();
+
+        watch(folder, false);
+
+        _scanner = new SnapshotScanner(folder, filter, Runtime.getRuntime().availableProcessors());
+        _snapshot = new LiveSnapshot(folder, filter, _scanner.scan(null, false));
+        _events = _snapshot.track(listener);
+
+        _isRunning = true;
+        _watchThread = new Thread(new Watcher(), "WatchServiceBackend");
+        _watchThread.start();
+    }
+
+    @Override
+    public void dispose() {
+        _isRunning = false;
+
+        if (_watchThread != null)
+            _watchThread.interrupt();
+
+        try {
+            if (_watcher != null)
+                _watcher.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        if (_scanner != null)
+            _scanner.dispose();
+    }
+
+    @Override
+    public boolean refresh() {
+
+        // stop watching excluded folders
+        Iterator<Map.Entry<WatchKey, File>> iterator = _keyMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<WatchKey, File> entry = iterator.next();
+
+            if (_filter.isExcluded(entry.getValue(), true)) {
+                entry.getKey().cancel();
+                _folders.remove(entry.getValue().getPath());
+                iterator.remove();
+            }
+        }
+
+        // watch included folders
+        Set<File> watched = new HashSet<>(_keyMap.values());
+        for (File folder : new ArrayList<>(watched)) {
+            try {
+                watchMissing(folder, watched);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Recursively watch sub folders of a watched folder that are not watched.
+     */
+    private void watchMissing(File folder, Set<File> watched) throws IOException {
+
+        File[] files = folder.listFiles();
+        if (files == null)
+            return;
+
+        for (File file : files) {
+            if (!file.isDirectory() || _filter.isExcluded(file, true))
+                continue;
+
+            if (watched.contains(file)) {
+                continue;
+            }
+
+            watch(file, false);
+            watched.add(file);
+        }
+    }
+
+    /**
+     * Watch a folder and recursively watch all sub folders.
+     *
+     * @param folder  The folder to watch.
+     * @param isNew   True to report the contents of the folder as created.
+     *
+     * @throws IOException
+     */
+    private void watch(File folder, boolean isNew) throws IOException {
+
+        Path path = folder.toPath();
+
+        WatchKey key = path.register(_watcher,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        _keyMap.put(key, folder);
+        _folders.put(folder.getPath(), key);
+
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+
+                boolean isFolder = file.isDirectory();
+
+                if (_filter.isExcluded(file, isFolder))
+                    continue;
+
+                // report contents created before the watch was registered.
+                if (isNew)
+                    _events.onCreate(file);
+
+                if (isFolder) {
+                    watch(file, isNew);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop watching a deleted folder and all of its sub folders.
+     *
+     * @param folder  The deleted folder.
+     */
+    private void unwatch(File folder) {
+
+        String path = folder.getPath();
+
+        // not a watched folder
+        WatchKey key = _folders.remove(path);
+        if (key == null)
+            return;
+
+        key.cancel();
+        _keyMap.remove(key);
+
+        // sub folder paths sort between the path followed by the
+        // separator and the path followed by the next character.
+        Iterator<WatchKey> iterator = _folders.subMap(
+                path + File.separatorChar, true,
+                path + (char)(File.separatorChar + 1), false).values().iterator();
+
+        while (iterator.hasNext()) {
+            key = iterator.next();
+            key.cancel();
+            _keyMap.remove(key);
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Find the changes in a folder whose events were lost by comparing it with
+     * the snapshot. Sub folders are not compared, their events are reported
+     * with their own keys.
+     */
+    private void rescan(File folder) {
+
+        System.err.println("Watch events lost, scanning folder: " + folder);
+
+        Snapshot previous = _snapshot.get();
+        Snapshot current = _scanner.scanFolder(previous, folder);
+        _scanner.diff(previous, current, folder, false, new RescanListener());
+        _snapshot.set(current);
+    }
+
+    /**
+     * File watcher thread.
+     */
+    private class Watcher implements Runnable {
+
+        @Override
+        public void run() {
+
+            while (_isRunning) {
+
+                WatchKey key;
+                try {
+                    key = _watcher.take();
+                } catch (InterruptedException x) {
+                    break;
+                } catch (RuntimeException e) {
+                    // watcher closed
+                    break;
+                }
+
+                // get folder associated with watch key.
+                File keyFolder = _keyMap.get(key);
+                if (keyFolder == null) {
+                    key.cancel();
+                    continue;
+                }
+
+                for (WatchEvent<?> event: key.pollEvents()) {
+
+                    WatchEvent.Kind<?> kind = event.kind();
+
+                    // events were lost, folder must be scanned.
+                    if (kind == StandardWatchEventKinds.OVERFLOW) {
+                        rescan(keyFolder);
+                        continue;
+                    }
+
+                    @SuppressWarnings("unchecked")
+                    WatchEvent<Path> pathEvent = (WatchEvent<Path>)event;
+                    Path filePath = pathEvent.context();
+                    File file = keyFolder.toPath().resolve(filePath).toFile();
+
+                    if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+
+                        _events.onCreate(file);
+
+                        // watch new directory for changes
+                        if (file.isDirectory() && !_filter.isExcluded(file, true)) {
+                            try {
+                                watch(file, true);
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    }
+                    else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+                        _events.onModify(file);
+                    }
+                    else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+
+                        // remove directory from watch
+                        unwatch(file);
+
+                        _events.onDelete(file);
+                    }
+                }
+
+                // reset key to receive more events
+                if (_keyMap.containsKey(key) && !key.reset()) {
+                    File folder = _keyMap.remove(key);
+                    _folders.remove(folder.getPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives changes found by a rescan and watches or unwatches
+     * folders before reporting them.
+     */
+    private class RescanListener implements IWatchListener {
+
+        @Override
+        public void onCreate(File file) {
+
+            // the contents of the folder are reported separately.
+            if (file.isDirectory() && !_filter.isExcluded(file, true) &&
+                    !_folders.containsKey(file.getPath())) {
+                try {
+                    watch(file, false);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            _listener.onCreate(file);
+        }
+
+        @Override
+        public void onModify(File file) {
+            _listener.onModify(file);
+        }
+
+        @Override
+        public void onDelete(File file) {
+            unwatch(file);
+            _listener.onDelete(file);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.jcwhatever.ftpfolderwatch.ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.Arrays;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Uploads to a loopback implicit FTPS server with a self-signed certificate
+ * issued for "localhost".
+ *
+ * <p>Session reuse is only tested when the JSSE session cache is accessible, which
+ * requires {@code --add-opens} on Java 9 or later.</p>
+ */
+public class FtpsConnectionTest {
+
+    private static final String PASSWORD = "changeit";
+    private static final byte[] DATA = "mirrored file contents\r\n".getBytes(StandardCharsets.UTF_8);
+
+    private static File _folder;
+    private static File _trustStore;
+    private static SSLContext _serverContext;
+
+    @BeforeClass
+    public static void createCertificate() throws Exception {
+
+        _folder = File.createTempFile("ftpstest", "");
+        if (!_folder.delete() || !_folder.mkdir())
+            throw new IOException("Failed to create " + _folder);
+
+        File keyStore = new File(_folder, "server.keystore");
+        File certificate = new File(_folder, "server.cer");
+        _trustStore = new File(_folder, "trust.keystore");
+
+        keytool("-genkeypair", "-alias", "server", "-keyalg", "RSA", "-keysize", "2048",
+                "-dname", "CN=localhost", "-ext", "san=dns:localhost", "-validity", "1",
+                "-keystore", keyStore.getPath(), "-storepass", PASSWORD, "-keypass", PASSWORD);
+
+        keytool("-exportcert", "-alias", "server", "-file", certificate.getPath(),
+                "-keystore", keyStore.getPath(), "-storepass", PASSWORD);
+
+        keytool("-importcert", "-noprompt", "-alias", "server", "-file", certificate.getPath(),
+                "-keystore", _trustStore.getPath(), "-storepass", PASSWORD);
+
+        KeyStore keys = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (InputStream stream = new FileInputStream(keyStore)) {
+            keys.load(stream, PASSWORD.toCharArray());
+        }
+
+        KeyManagerFactory factory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        factory.init(keys, PASSWORD.toCharArray());
+
+        _serverContext = SSLContext.getInstance("TLS");
+        _serverContext.init(factory.getKeyManagers(), null, null);
+    }
+
+    @AfterClass
+    public static void deleteCertificate() {
+
+        File[] files = _folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        _folder.delete();
+    }
+
+    @Test
+    public void testUploadReusesControlSession() throws Exception {
+
+        SSLContext context = FtpsConnection.createContext(_trustStore, PASSWORD);
+        Assume.assumeTrue(FtpsConnection.isSessionReuseSupported(context));
+
+        try (LoopbackServer server = new LoopbackServer()) {
+
+            upload(new FtpsConnection("localhost", server.getPort(), "user", "pass", true, context));
+
+            assertArrayEquals(DATA, server.getReceived());
+            assertEquals(FtpsConnection.SESSION_REUSE_PROTOCOL, server.getControlProtocol());
+            assertTrue("Data connection did not resume the control session.",
+                    Arrays.equals(server.getControlSessionId(), server.getDataSessionId()));
+        }
+    }
+
+    @Test
+    public void testRejectsCertificateNotIssuedForHost() throws Exception {
+
+        SSLContext context = FtpsConnection.createContext(_trustStore, PASSWORD);
+
+        try (LoopbackServer server = new LoopbackServer()) {
+
+            try {
+                upload(new FtpsConnection("127.0.0.1", server.getPort(), "user", "pass", true, context));
+                fail("Certificate for localhost was accepted for 127.0.0.1.");
+            }
+            catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testHostVerificationDisabled() throws Exception {
+
+        SSLContext context = FtpsConnection.createContext(_trustStore, PASSWORD);
+
+        try (LoopbackServer server = new LoopbackServer()) {
+
+            FtpsConnection connection = new FtpsConnection("127.0.0.1", server.getPort(),
+                    "user", "pass", true, context);
+            connection.setHostVerified(false);
+
+            upload(connection);
+
+            assertArrayEquals(DATA, server.getReceived());
+            assertEquals("I", server.getFileType());
+        }
+    }
+
+    private static void upload(FtpsConnection connection) throws IOException {
+
+        connection.setSessionTimeout(0);
+        connection.connect(new IFtpHandler() {
+            @Override
+            public void handle(FTPClient ftp) throws IOException {
+                ftp.enterLocalPassiveMode();
+
+                if (!ftp.storeFile("file.txt", new ByteArrayInputStream(DATA)))
+                    throw new IOException("Upload failed: " + ftp.getReplyString());
+            }
+        });
+    }
+
+    private static void keytool(String... args) throws Exception {
+
+        String[] command = new String[args.length + 1];
+        command[0] = new File(System.getProperty("java.home"), "bin/keytool").getPath();
+        System.arraycopy(args, 0, command, 1, args.length);
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        copy(process.getInputStream(), output);
+
+        if (process.waitFor() != 0)
+            throw new IOException("keytool failed: " + output.toString("UTF-8"));
+    }
+
+    private static void copy(InputStream input, OutputStream output) throws IOException {
+
+        byte[] buffer = new byte[4096];
+        int read;
+
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Minimal implicit FTPS server that accepts one session and stores one file.
+     */
+    private static class LoopbackServer implements AutoCloseable, Runnable {
+
+        final SSLServerSocket control;
+        final Thread thread;
+
+        volatile byte[] received;
+        volatile byte[] controlSessionId;
+        volatile byte[] dataSessionId;
+        volatile String controlProtocol;
+        volatile String fileType = "A";
+
+        LoopbackServer() throws IOException {
+            control = (SSLServerSocket)_serverContext.getServerSocketFactory()
+                    .createServerSocket(0, 1, InetAddress.getLoopbackAddress());
+
+            thread = new Thread(this, "LoopbackServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return control.getLocalPort();
+        }
+
+        byte[] getReceived() {
+            return received;
+        }
+
+        byte[] getControlSessionId() {
+            return controlSessionId;
+        }
+
+        byte[] getDataSessionId() {
+            return dataSessionId;
+        }
+
+        String getControlProtocol() {
+            return controlProtocol;
+        }
+
+        String getFileType() {
+            return fileType;
+        }
+
+        @Override
+        public void run() {
+
+            try (SSLSocket socket = (SSLSocket)control.accept()) {
+
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+
+                writer.print("220 ready\r\n");
+                writer.flush();
+
+                controlSessionId = socket.getSession().getId();
+                controlProtocol = socket.getSession().getProtocol();
+
+                SSLServerSocket passive = null;
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+
+                    String command = line.split(" ", 2)[0].toUpperCase();
+
+                    switch (command) {
+                        case "USER":
+                            reply(writer, "331 password required");
+                            break;
+                        case "PASS":
+                            reply(writer, "230 logged in");
+                            break;
+                        case "PASV":
+                            passive = (SSLServerSocket)_serverContext.getServerSocketFactory()
+                                    .createServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                            int port = passive.getLocalPort();
+                            reply(writer, "227 Entering Passive Mode (127,0,0,1," + (port >> 8) + ',' + (port & 0xFF) + ')');
+                            break;
+                        case "STOR":
+                            reply(writer, "150 opening data connection");
+                            try (SSLSocket data = (SSLSocket)passive.accept()) {
+                                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                                copy(data.getInputStream(), output);
+                                dataSessionId = data.getSession().getId();
+                                received = output.toByteArray();
+                            }
+                            passive.close();
+                            reply(writer, "226 transfer complete");
+                            break;
+                        case "QUIT":
+                            reply(writer, "221 bye");
+                            return;
+                        case "TYPE":
+                            fileType = line.substring(5).trim();
+                            reply(writer, "200 ok");
+                            break;
+                        case "PBSZ":
+                        case "PROT":
+                        case "NOOP":
+                            reply(writer, "200 ok");
+                            break;
+                        default:
+                            reply(writer, "502 not implemented");
+                    }
+                }
+            }
+            catch (IOException e) {
+                // client rejected the certificate or closed the connection.
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            control.close();
+        }
+
+        private static void reply(PrintWriter writer, String reply) {
+            writer.print(reply + "\r\n");
+            writer.flush();
+        }
+    }
+}